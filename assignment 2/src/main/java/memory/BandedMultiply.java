@@ -0,0 +1,118 @@
+package memory;
+
+/**
+ * Product C = A * B of operands with a known band structure (see MatrixStructure), skipping
+ * the regions known to be zero: row i of A is only read inside its band, and so is every row of B.
+ * This covers diagonal operands (row or column scaling), triangular ones (about half the work)
+ * and narrow bands (O(n * band^2) instead of O(n^3)).
+ *
+ * Usage: open(), then multiplyRows(...) over disjoint row ranges (from any thread), then close() and result().
+ */
+public class BandedMultiply {
+
+    private final SharedMatrix left;
+    private final SharedMatrix right;
+    private final MatrixStructure leftStructure;
+    private final MatrixStructure rightStructure;
+    private final BufferPool pool; // may be null
+
+    private int rows;
+    private int depth;
+    private int cols;
+    private double[] a; // A, row-major
+    private double[] b; // B, row-major
+    private double[] result;
+
+    public BandedMultiply(SharedMatrix left, MatrixStructure leftStructure,
+                          SharedMatrix right, MatrixStructure rightStructure, BufferPool pool) {
+        if (left == null || right == null) {
+            throw new IllegalArgumentException("Illegal operation: null matrix");
+        }
+        this.left = left;
+        this.right = right;
+        this.leftStructure = leftStructure == null ? MatrixStructure.GENERAL : leftStructure;
+        this.rightStructure = rightStructure == null ? MatrixStructure.GENERAL : rightStructure;
+        this.pool = pool;
+    }
+
+    /**
+     * Copies both operands into row-major scratch arrays and checks their shapes.
+     */
+    public void open() {
+        if (left.length() == 0 || right.length() == 0) {
+            throw new IllegalArgumentException("Illegal operation: empty matrix");
+        }
+        rows = left.rowCount();
+        depth = left.columnCount();
+        cols = right.columnCount();
+        if (right.rowCount() != depth) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        a = buffer(rows * depth);
+        b = buffer(depth * cols);
+        left.readInto(a, depth);
+        right.readInto(b, cols);
+        result = pool != null ? pool.acquireZeroed(rows * cols) : new double[rows * cols];
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    /**
+     * Computes rows [from, to) of C.
+     */
+    public void multiplyRows(int from, int to) {
+        if (a == null) {
+            throw new IllegalStateException("Multiplication is not open");
+        }
+        for (int i = from; i < to; i++) {
+            int kFrom = bandStart(i, leftStructure.lowerBandwidth());
+            int kTo = bandEnd(i, leftStructure.upperBandwidth(), depth);
+            for (int k = kFrom; k < kTo; k++) {
+                double x = a[i * depth + k];
+                if (x == 0) {
+                    continue;
+                }
+                int jFrom = bandStart(k, rightStructure.lowerBandwidth());
+                int jTo = bandEnd(k, rightStructure.upperBandwidth(), cols);
+                if (jFrom < jTo) {
+                    Kernels.AXPY.apply(x, b, k * cols + jFrom, 1, result, i * cols + jFrom, 1, jTo - jFrom);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the operand copies back to the pool.
+     */
+    public void close() {
+        if (pool != null) {
+            pool.release(a);
+            pool.release(b);
+        }
+        a = null;
+        b = null;
+    }
+
+    public SharedMatrix result() {
+        if (result == null) {
+            throw new IllegalStateException("Multiplication was never opened");
+        }
+        return SharedMatrix.wrapRowMajor(result, rows, cols, pool);
+    }
+
+    // first column of row i inside a band reaching lower below the diagonal
+    private static int bandStart(int i, int lower) {
+        return (int) Math.max(0, (long) i - lower);
+    }
+
+    // one past the last column of row i inside a band reaching upper above the diagonal
+    private static int bandEnd(int i, int upper, int width) {
+        return (int) Math.min(width, (long) i + upper + 1);
+    }
+
+    private double[] buffer(int length) {
+        return pool != null ? pool.acquire(length) : new double[length];
+    }
+}
@@ -0,0 +1,285 @@
+package memory;
+
+/**
+ * Cache-blocked product C = A * B over SharedMatrix operands.
+ * C is split into TILE_ROWS x TILE_COLS output tiles that can be computed independently,
+ * and the shared dimension is walked in TILE_DEPTH blocks (k-blocking) so that the
+ * working set of one tile step fits in L1/L2:
+ * a packed A block (64 x 128 doubles = 64KB) and a packed B panel (128 x 256 doubles = 256KB).
+ * B is packed into contiguous panels once in open() and reused by every tile of the same
+ * column band, instead of being streamed through the cache once per output row.
+ *
+ * With accumulate(C, alpha, beta) it computes the GEMM alpha * A * B + beta * C instead:
+ * beta * C is written into the output once in open(), alpha is folded into the packed A blocks,
+ * and the tiles accumulate onto C directly, so no separate ADD pass is needed.
+ *
+ * Usage: open(), then multiplyTile(...) for every tile (from any thread), then close().
+ * Between open() and close() the read locks of A and B are held, so tiles run lock-free.
+ * With a BufferPool, the panels and per-tile scratch come from the pool and go back to it,
+ * and the storage of result() is owned by the returned matrix (see SharedMatrix.release()).
+ */
+public class BlockedMultiply {
+
+    public static final int TILE_ROWS = 64;
+    public static final int TILE_COLS = 256;
+    public static final int TILE_DEPTH = 128;
+
+    private final SharedMatrix left;
+    private final SharedMatrix right;
+    private final int tileRows;
+    private final int tileCols;
+    private final int tileDepth;
+    private final BufferPool pool; // may be null
+    private SharedMatrix addend; // C of a GEMM, null for a plain product
+    private double alpha = 1;
+    private double beta = 1;
+
+    private SharedVector[] leftVectors;
+    private SharedVector[] rightVectors;
+    private boolean leftRowMajor;
+    private int rows; // rows of A and C
+    private int depth; // columns of A, rows of B
+    private int cols; // columns of B and C
+    private double[][] panels; // packed B, indexed by [kBlock * colBlocks + colBlock]
+    private double[] result; // C, row-major
+
+    public BlockedMultiply(SharedMatrix left, SharedMatrix right) {
+        this(left, right, TILE_ROWS, TILE_COLS, TILE_DEPTH);
+    }
+
+    public BlockedMultiply(SharedMatrix left, SharedMatrix right, BufferPool pool) {
+        this(left, right, TILE_ROWS, TILE_COLS, TILE_DEPTH, pool);
+    }
+
+    public BlockedMultiply(SharedMatrix left, SharedMatrix right, int tileRows, int tileCols, int tileDepth) {
+        this(left, right, tileRows, tileCols, tileDepth, null);
+    }
+
+    public BlockedMultiply(SharedMatrix left, SharedMatrix right, int tileRows, int tileCols, int tileDepth,
+                           BufferPool pool) {
+        if (left == null || right == null) {
+            throw new IllegalArgumentException("Illegal operation: null matrix");
+        }
+        if (tileRows <= 0 || tileCols <= 0 || tileDepth <= 0) {
+            throw new IllegalArgumentException("Illegal operation: tile sizes must be positive");
+        }
+        this.left = left;
+        this.right = right;
+        this.tileRows = tileRows;
+        this.tileCols = tileCols;
+        this.tileDepth = tileDepth;
+        this.pool = pool;
+    }
+
+    /**
+     * Turns the product into alpha * A * B + beta * C. Must be called before open().
+     */
+    public void accumulate(SharedMatrix c, double alpha, double beta) {
+        if (c == null) {
+            throw new IllegalArgumentException("Illegal operation: null matrix");
+        }
+        if (panels != null) {
+            throw new IllegalStateException("Multiplication is already open");
+        }
+        this.addend = c;
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+
+    /**
+     * Locks both operands for reading, checks their shapes and packs B into panels.
+     */
+    public void open() {
+        if (left.length() == 0 || right.length() == 0) {
+            throw new IllegalArgumentException("Illegal operation: empty matrix");
+        }
+        // orientations are taken from the matrices, so pending O(1) transposes are honored
+        boolean rightRowMajor = right.getOrientation() == VectorOrientation.ROW_MAJOR;
+        leftRowMajor = left.getOrientation() == VectorOrientation.ROW_MAJOR;
+        leftVectors = left.lockAllForRead();
+        try {
+            rightVectors = right.lockAllForRead();
+        } catch (RuntimeException ex) {
+            SharedMatrix.unlockAllForRead(leftVectors);
+            leftVectors = null;
+            throw ex;
+        }
+
+        try {
+            rows = leftRowMajor ? leftVectors.length : leftVectors[0].rawLength();
+            depth = leftRowMajor ? leftVectors[0].rawLength() : leftVectors.length;
+            int rightRows = rightRowMajor ? rightVectors.length : rightVectors[0].rawLength();
+            cols = rightRowMajor ? rightVectors[0].rawLength() : rightVectors.length;
+            if (depth != rightRows || !sameLengths(leftVectors) || !sameLengths(rightVectors)) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+
+            packPanels(rightRowMajor);
+            if (addend == null) {
+                result = pool != null ? pool.acquireZeroed(rows * cols) : new double[rows * cols];
+            } else {
+                result = initialAddend();
+            }
+        } catch (RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Releases the operand locks. Safe to call more than once.
+     */
+    public void close() {
+        if (rightVectors != null) {
+            SharedMatrix.unlockAllForRead(rightVectors);
+            rightVectors = null;
+        }
+        if (leftVectors != null) {
+            SharedMatrix.unlockAllForRead(leftVectors);
+            leftVectors = null;
+        }
+        if (panels != null && pool != null) {
+            for (double[] panel : panels) {
+                pool.release(panel);
+            }
+        }
+        panels = null;
+    }
+
+    public int rowTiles() {
+        return (rows + tileRows - 1) / tileRows;
+    }
+
+    public int colTiles() {
+        return (cols + tileCols - 1) / tileCols;
+    }
+
+    /**
+     * Computes one output tile of C. Different tiles write disjoint parts of C,
+     * so tiles may run concurrently.
+     */
+    public void multiplyTile(int rowTile, int colTile) {
+        if (panels == null) {
+            throw new IllegalStateException("Multiplication is not open");
+        }
+        int i0 = rowTile * tileRows;
+        int i1 = Math.min(rows, i0 + tileRows);
+        int j0 = colTile * tileCols;
+        int width = Math.min(cols, j0 + tileCols) - j0;
+        int colBlocks = colTiles();
+        double[] packedLeft = buffer(tileRows * tileDepth);
+
+        for (int kb = 0; kb * tileDepth < depth; kb++) {
+            int k0 = kb * tileDepth;
+            int kLen = Math.min(depth, k0 + tileDepth) - k0;
+            packLeft(packedLeft, i0, i1, k0, kLen);
+            double[] panel = panels[kb * colBlocks + colTile];
+
+            // C[i, j0..j0+width) += A[i, k] * Bpanel[k, 0..width) for every k of this depth block
+            for (int i = i0; i < i1; i++) {
+                int aRow = (i - i0) * kLen;
+                int cRow = i * cols + j0;
+                for (int k = 0; k < kLen; k++) {
+                    Kernels.AXPY.apply(packedLeft[aRow + k], panel, k * width, 1, result, cRow, 1, width);
+                }
+            }
+        }
+        if (pool != null) {
+            pool.release(packedLeft);
+        }
+    }
+
+    /**
+     * Wraps the computed product in a new row-major SharedMatrix, without copying it.
+     */
+    public SharedMatrix result() {
+        if (result == null) {
+            throw new IllegalStateException("Multiplication was never opened");
+        }
+        return SharedMatrix.wrapRowMajor(result, rows, cols, pool);
+    }
+
+    // beta * C in row-major order, the starting value of every output tile
+    private double[] initialAddend() {
+        if (addend.rowCount() != rows || addend.columnCount() != cols) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        double[] c = buffer(rows * cols);
+        addend.readInto(c, cols);
+        if (beta != 1) {
+            for (int i = 0; i < rows * cols; i++) {
+                c[i] *= beta;
+            }
+        }
+        return c;
+    }
+
+    private double[] buffer(int length) {
+        return pool != null ? pool.acquire(length) : new double[length];
+    }
+
+    private static boolean sameLengths(SharedVector[] vecs) {
+        for (SharedVector v : vecs) {
+            if (v.rawLength() != vecs[0].rawLength()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // copies alpha * A[i0..i1, k0..k0+kLen) into a dense row-major block
+    private void packLeft(double[] dest, int i0, int i1, int k0, int kLen) {
+        if (leftRowMajor) {
+            for (int i = i0; i < i1; i++) {
+                SharedVector row = leftVectors[i];
+                double[] data = row.storage();
+                int base = (i - i0) * kLen;
+                for (int k = 0; k < kLen; k++) {
+                    dest[base + k] = alpha * data[row.offset() + (k0 + k) * row.stride()];
+                }
+            }
+        } else {
+            for (int k = 0; k < kLen; k++) {
+                SharedVector col = leftVectors[k0 + k];
+                double[] data = col.storage();
+                for (int i = i0; i < i1; i++) {
+                    dest[(i - i0) * kLen + k] = alpha * data[col.offset() + i * col.stride()];
+                }
+            }
+        }
+    }
+
+    // splits B into depth x column blocks, each stored row-major and contiguous
+    private void packPanels(boolean rightRowMajor) {
+        int kBlocks = (depth + tileDepth - 1) / tileDepth;
+        int colBlocks = colTiles();
+        panels = new double[kBlocks * colBlocks][];
+        for (int kb = 0; kb < kBlocks; kb++) {
+            int k0 = kb * tileDepth;
+            int kLen = Math.min(depth, k0 + tileDepth) - k0;
+            for (int cb = 0; cb < colBlocks; cb++) {
+                int j0 = cb * tileCols;
+                int width = Math.min(cols, j0 + tileCols) - j0;
+                double[] panel = buffer(kLen * width);
+                if (rightRowMajor) {
+                    for (int k = 0; k < kLen; k++) {
+                        SharedVector row = rightVectors[k0 + k];
+                        double[] data = row.storage();
+                        for (int j = 0; j < width; j++) {
+                            panel[k * width + j] = data[row.offset() + (j0 + j) * row.stride()];
+                        }
+                    }
+                } else {
+                    for (int j = 0; j < width; j++) {
+                        SharedVector col = rightVectors[j0 + j];
+                        double[] data = col.storage();
+                        for (int k = 0; k < kLen; k++) {
+                            panel[k * width + j] = data[col.offset() + (k0 + k) * col.stride()];
+                        }
+                    }
+                }
+                panels[kb * colBlocks + cb] = panel;
+            }
+        }
+    }
+}
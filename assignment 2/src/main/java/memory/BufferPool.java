@@ -0,0 +1,135 @@
+package memory;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Recycles the double[] storage of intermediate matrices and scratch buffers.
+ * Buffers are bucketed by size class (the next power of two of the requested length), so a buffer
+ * handed out may be longer than requested: callers must always work with their own length, never
+ * with buffer.length. Buffers below MIN_POOLED_LENGTH are cheaper to allocate than to pool and are
+ * never retained. At most maxRetained elements are kept across all buckets, the rest goes to the GC.
+ *
+ * A released buffer must not be touched by its previous owner anymore.
+ */
+public class BufferPool {
+
+    public static final int MIN_POOLED_LENGTH = 64;
+    public static final int MAX_POOLED_LENGTH = 1 << 30;
+    public static final long DEFAULT_MAX_RETAINED = 8L << 20; // 8M doubles = 64MB
+
+    private final ArrayDeque<double[]>[] buckets;
+    private final long maxRetained;
+    private long retained = 0;
+
+    // counters for the worker report
+    private long acquired = 0;
+    private long reused = 0;
+    private long allocated = 0;
+    private long returned = 0;
+    private long dropped = 0;
+
+    public BufferPool() {
+        this(DEFAULT_MAX_RETAINED);
+    }
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(long maxRetained) {
+        if (maxRetained < 0) {
+            throw new IllegalArgumentException("maxRetained cannot be negative");
+        }
+        this.maxRetained = maxRetained;
+        this.buckets = new ArrayDeque[31];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * A buffer of at least length elements, with unspecified content.
+     */
+    public double[] acquire(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Illegal operation: negative buffer length");
+        }
+        if (length < MIN_POOLED_LENGTH || length > MAX_POOLED_LENGTH) {
+            synchronized (this) {
+                acquired++;
+                allocated++;
+            }
+            return new double[length];
+        }
+        int bucket = bucketOf(length);
+        synchronized (this) {
+            acquired++;
+            double[] buffer = buckets[bucket].pollLast();
+            if (buffer != null) {
+                reused++;
+                retained -= buffer.length;
+                return buffer;
+            }
+            allocated++;
+        }
+        // allocate outside the monitor, a large allocation may take a while
+        return new double[1 << bucket];
+    }
+
+    /**
+     * A buffer of at least length elements, the first length of which are zero.
+     */
+    public double[] acquireZeroed(int length) {
+        double[] buffer = acquire(length);
+        Arrays.fill(buffer, 0, length, 0.0);
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer back for reuse. Buffers that were not sized by this pool,
+     * or that would exceed the retention limit, are dropped.
+     */
+    public void release(double[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int length = buffer.length;
+        boolean sized = length >= MIN_POOLED_LENGTH && length <= MAX_POOLED_LENGTH && Integer.bitCount(length) == 1;
+        synchronized (this) {
+            if (!sized || retained + length > maxRetained) {
+                dropped++;
+                return;
+            }
+            returned++;
+            retained += length;
+            buckets[Integer.numberOfTrailingZeros(length)].addLast(buffer);
+        }
+    }
+
+    public synchronized long getAcquired() {
+        return acquired;
+    }
+
+    public synchronized long getReused() {
+        return reused;
+    }
+
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    public synchronized long getRetained() {
+        return retained;
+    }
+
+    /**
+     * One-line summary of the counters, for the worker report.
+     */
+    public synchronized String stats() {
+        return String.format("acquired=%d reused=%d allocated=%d returned=%d dropped=%d retained=%dKB",
+                acquired, reused, allocated, returned, dropped, retained * Double.BYTES / 1024);
+    }
+
+    // index of the smallest power of two that holds length elements
+    private static int bucketOf(int length) {
+        return 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+}
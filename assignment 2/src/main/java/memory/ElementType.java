@@ -0,0 +1,10 @@
+package memory;
+/**
+ * Element type used by a LinearAlgebraEngine for intermediate results.
+ * DOUBLE keeps every value in 64 bits (SharedMatrix/SharedVector).
+ * FLOAT computes with 32 bit values (FloatMatrix): half the memory traffic, about 7 significant digits.
+ */
+public enum ElementType {
+    DOUBLE,
+    FLOAT
+}
@@ -0,0 +1,165 @@
+package memory;
+
+import java.util.Arrays;
+
+/**
+ * Dense single-precision matrix over one contiguous float[] (see ElementType.FLOAT).
+ * The storage is row-major, unless the matrix is transposed: then it holds the row-major
+ * storage of the transpose, which makes transpose() O(1) just like SharedMatrix.transpose().
+ *
+ * Operations write into a separate output matrix, one range of stored rows at a time,
+ * so that disjoint ranges can be computed by different tasks without locks.
+ */
+public class FloatMatrix {
+
+    private final int rows;
+    private final int cols;
+    private final float[] data;
+    private final boolean transposed;
+
+    private FloatMatrix(int rows, int cols, float[] data, boolean transposed) {
+        this.rows = rows;
+        this.cols = cols;
+        this.data = data;
+        this.transposed = transposed;
+    }
+
+    /**
+     * Narrows a dense row-major double matrix to floats.
+     */
+    public static FloatMatrix fromDense(double[][] matrix) {
+        if (matrix == null || matrix.length == 0 || matrix[0] == null) {
+            throw new IllegalArgumentException("Illegal operation: empty matrix");
+        }
+        int rows = matrix.length;
+        int cols = matrix[0].length;
+        float[] data = new float[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            if (matrix[i] == null || matrix[i].length != cols) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+            for (int j = 0; j < cols; j++) {
+                data[i * cols + j] = (float) matrix[i][j];
+            }
+        }
+        return new FloatMatrix(rows, cols, data, false);
+    }
+
+    public static FloatMatrix zeros(int rows, int cols) {
+        return new FloatMatrix(rows, cols, new float[rows * cols], false);
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    public int columnCount() {
+        return cols;
+    }
+
+    public boolean isTransposed() {
+        return transposed;
+    }
+
+    // rows of the underlying storage: columns of a transposed matrix
+    public int storedRows() {
+        return transposed ? cols : rows;
+    }
+
+    public FloatMatrix transpose() {
+        return new FloatMatrix(cols, rows, data, !transposed);
+    }
+
+    /**
+     * Zero matrix with the same shape and storage layout.
+     */
+    public FloatMatrix blankLike() {
+        return new FloatMatrix(rows, cols, new float[data.length], transposed);
+    }
+
+    /**
+     * This matrix with row-major storage: itself, or a copy if it is transposed.
+     */
+    public FloatMatrix materialize() {
+        if (!transposed) {
+            return this;
+        }
+        float[] result = new float[data.length];
+        // the storage is cols x rows
+        for (int i = 0; i < cols; i++) {
+            for (int j = 0; j < rows; j++) {
+                result[j * cols + i] = data[i * rows + j];
+            }
+        }
+        return new FloatMatrix(rows, cols, result, false);
+    }
+
+    /**
+     * Widens the logical content back to a row-major double matrix.
+     */
+    public double[][] readRowMajor() {
+        double[][] result = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                result[i][j] = transposed ? data[j * rows + i] : data[i * cols + j];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * out = this + other for stored rows [from, to). All three must share shape and layout.
+     */
+    public void addRange(FloatMatrix other, FloatMatrix out, int from, int to) {
+        requireSameLayout(other);
+        requireSameLayout(out);
+        int width = data.length / Math.max(1, storedRows());
+        for (int r = from; r < to; r++) {
+            System.arraycopy(data, r * width, out.data, r * width, width);
+            FloatKernels.ADD.apply(out.data, r * width, 1, other.data, r * width, 1, width);
+        }
+    }
+
+    /**
+     * out = -this for stored rows [from, to). out must share shape and layout.
+     */
+    public void negateRange(FloatMatrix out, int from, int to) {
+        requireSameLayout(out);
+        int width = data.length / Math.max(1, storedRows());
+        for (int r = from; r < to; r++) {
+            System.arraycopy(data, r * width, out.data, r * width, width);
+            FloatKernels.NEGATE.apply(out.data, r * width, 1, width);
+        }
+    }
+
+    /**
+     * Rows [from, to) of this * right, written into out.
+     * right and out must be row-major (see materialize()), this may be transposed.
+     */
+    public void multiplyRange(FloatMatrix right, FloatMatrix out, int from, int to) {
+        if (right.transposed || out.transposed) {
+            throw new IllegalArgumentException("Illegal operation: expected a row-major matrix");
+        }
+        if (cols != right.rows || out.rows != rows || out.cols != right.cols) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        int width = right.cols;
+        for (int i = from; i < to; i++) {
+            int outRow = i * width;
+            Arrays.fill(out.data, outRow, outRow + width, 0f);
+            for (int k = 0; k < cols; k++) {
+                float a = transposed ? data[k * rows + i] : data[i * cols + k];
+                FloatKernels.AXPY.apply(a, right.data, k * width, 1, out.data, outRow, 1, width);
+            }
+        }
+    }
+
+    private void requireSameLayout(FloatMatrix other) {
+        if (other.rows != rows || other.cols != cols) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        if (other.transposed != transposed) {
+            throw new IllegalArgumentException("Illegal operation: orientations mismatch");
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package memory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Bulk kernels that run directly over the raw storage of SharedVectors.
+ * A kernel receives the backing array of every operand together with the offset and
+ * stride of the view, and must not lock or call back into SharedVector/SharedMatrix:
+ * the caller already holds (or optimistically validates) every lock it needs.
+ * The stride-1 case is kept as a plain indexed loop so the JIT can vectorize it.
+ *
+ * When the build includes the "simd" profile and the jdk.incubator.vector module is enabled at runtime
+ * (--add-modules jdk.incubator.vector), ADD, NEGATE, DOT and AXPY are backed by the explicit
+ * Vector API kernels of VectorKernels instead. Running with -Dlae.simd=false forces the scalar kernels.
+ */
+public final class Kernels {
+
+    /** In-place operation on a single vector. */
+    @FunctionalInterface
+    public interface Unary {
+        void apply(double[] data, int offset, int stride, int length);
+    }
+
+    /** In-place operation dst = f(dst, src) on two vectors of the same length. */
+    @FunctionalInterface
+    public interface Binary {
+        void apply(double[] dst, int dstOffset, int dstStride,
+                   double[] src, int srcOffset, int srcStride, int length);
+    }
+
+    /** Reduction of two vectors of the same length into a scalar. */
+    @FunctionalInterface
+    public interface Reduction {
+        double apply(double[] a, int aOffset, int aStride,
+                     double[] b, int bOffset, int bStride, int length);
+    }
+
+    /** In-place dst = dst + alpha * src, the building block of vector-matrix products. */
+    @FunctionalInterface
+    public interface Scaled {
+        void apply(double alpha, double[] src, int srcOffset, int srcStride,
+                   double[] dst, int dstOffset, int dstStride, int length);
+    }
+
+    // scalar kernels, also the fallback of the SIMD kernels for strided views
+    static final Binary SCALAR_ADD = Kernels::add;
+    static final Unary SCALAR_NEGATE = Kernels::negate;
+    static final Reduction SCALAR_DOT = Kernels::dot;
+    static final Scaled SCALAR_AXPY = Kernels::axpy;
+
+    private static final String SIMD_BACKEND = "memory.VectorKernels";
+    private static final Class<?> SIMD = loadSimd();
+
+    public static final Binary ADD = select("ADD", SCALAR_ADD);
+    public static final Unary NEGATE = select("NEGATE", SCALAR_NEGATE);
+    public static final Reduction DOT = select("DOT", SCALAR_DOT);
+    public static final Scaled AXPY = select("AXPY", SCALAR_AXPY);
+
+    private Kernels() {
+    }
+
+    /**
+     * Which implementation backs the public kernels, for reports: "scalar" or "simd (<bits> bit)".
+     */
+    public static String backend() {
+        if (SIMD == null) {
+            return "scalar";
+        }
+        try {
+            Method describe = SIMD.getDeclaredMethod("describe");
+            describe.setAccessible(true);
+            return (String) describe.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return "simd";
+        }
+    }
+
+    // the Vector API backend, or null when it was not compiled in, the module is missing or it is disabled
+    private static Class<?> loadSimd() {
+        if (!Boolean.parseBoolean(System.getProperty("lae.simd", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return Class.forName(SIMD_BACKEND);
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return null;
+        }
+    }
+
+    private static <T> T select(String name, T scalar) {
+        if (SIMD == null) {
+            return scalar;
+        }
+        try {
+            Field field = SIMD.getDeclaredField(name);
+            field.setAccessible(true);
+            @SuppressWarnings("unchecked")
+            T kernel = (T) field.get(null);
+            return kernel;
+        } catch (ReflectiveOperationException | ClassCastException ex) {
+            return scalar;
+        }
+    }
+
+    private static void add(double[] dst, int dstOffset, int dstStride,
+                            double[] src, int srcOffset, int srcStride, int length) {
+        if (dstStride == 1 && srcStride == 1) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] += src[srcOffset + i];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i * dstStride] += src[srcOffset + i * srcStride];
+            }
+        }
+    }
+
+    private static void negate(double[] data, int offset, int stride, int length) {
+        if (stride == 1) {
+            for (int i = 0; i < length; i++) {
+                data[offset + i] = -data[offset + i];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                data[offset + i * stride] = -data[offset + i * stride];
+            }
+        }
+    }
+
+    private static double dot(double[] a, int aOffset, int aStride,
+                              double[] b, int bOffset, int bStride, int length) {
+        double result = 0;
+        if (aStride == 1 && bStride == 1) {
+            for (int i = 0; i < length; i++) {
+                result += a[aOffset + i] * b[bOffset + i];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                result += a[aOffset + i * aStride] * b[bOffset + i * bStride];
+            }
+        }
+        return result;
+    }
+
+    private static void axpy(double alpha, double[] src, int srcOffset, int srcStride,
+                             double[] dst, int dstOffset, int dstStride, int length) {
+        if (srcStride == 1 && dstStride == 1) {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i] += alpha * src[srcOffset + i];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                dst[dstOffset + i * dstStride] += alpha * src[srcOffset + i * srcStride];
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package memory;
+
+/**
+ * Known zero structure of a matrix, as a band: element (i, j) can only be non-zero if
+ * -lower <= j - i <= upper. A diagonal matrix has bandwidths (0, 0), a lower triangular one (n, 0),
+ * an upper triangular one (0, n). The identity is a diagonal matrix with ones on the diagonal.
+ * GENERAL means nothing is known. Structures are immutable.
+ */
+public final class MatrixStructure {
+
+    private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    public static final MatrixStructure GENERAL = new MatrixStructure(UNBOUNDED, UNBOUNDED, false);
+    public static final MatrixStructure IDENTITY = new MatrixStructure(0, 0, true);
+    public static final MatrixStructure DIAGONAL = new MatrixStructure(0, 0, false);
+    public static final MatrixStructure LOWER_TRIANGULAR = new MatrixStructure(UNBOUNDED, 0, false);
+    public static final MatrixStructure UPPER_TRIANGULAR = new MatrixStructure(0, UNBOUNDED, false);
+
+    private final int lower;
+    private final int upper;
+    private final boolean identity;
+
+    private MatrixStructure(int lower, int upper, boolean identity) {
+        this.lower = lower;
+        this.upper = upper;
+        this.identity = identity;
+    }
+
+    public static MatrixStructure banded(int lower, int upper) {
+        if (lower < 0 || upper < 0) {
+            throw new IllegalArgumentException("Illegal operation: negative bandwidth");
+        }
+        return new MatrixStructure(lower, upper, false);
+    }
+
+    /**
+     * Parses a declared structure: general, identity, diagonal, lower, upper or banded:lower,upper.
+     */
+    public static MatrixStructure parse(String name) {
+        String s = name.trim().toLowerCase();
+        switch (s) {
+            case "general":
+                return GENERAL;
+            case "identity":
+                return IDENTITY;
+            case "diagonal":
+                return DIAGONAL;
+            case "lower":
+                return LOWER_TRIANGULAR;
+            case "upper":
+                return UPPER_TRIANGULAR;
+            default:
+                if (s.startsWith("banded:")) {
+                    String[] parts = s.substring("banded:".length()).split(",");
+                    if (parts.length == 2) {
+                        try {
+                            return banded(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+                        } catch (NumberFormatException ex) {
+                            // reported below
+                        }
+                    }
+                }
+                throw new IllegalArgumentException("Unknown matrix structure: " + name);
+        }
+    }
+
+    /**
+     * Narrowest structure of a dense row-major matrix. Stops scanning as soon as nothing can be gained.
+     */
+    public static MatrixStructure detect(double[][] matrix) {
+        int rows = matrix.length;
+        int cols = rows == 0 ? 0 : matrix[0].length;
+        if (rows == 0 || cols == 0) {
+            return GENERAL;
+        }
+        int lower = 0;
+        int upper = 0;
+        boolean ones = rows == cols;
+        for (int i = 0; i < rows; i++) {
+            double[] row = matrix[i];
+            for (int j = 0; j < row.length; j++) {
+                if (row[j] != 0) {
+                    lower = Math.max(lower, i - j);
+                    upper = Math.max(upper, j - i);
+                }
+            }
+            if (ones && (i >= row.length || row[i] != 1)) {
+                ones = false;
+            }
+            if (lower >= rows - 1 && upper >= cols - 1) {
+                return GENERAL;
+            }
+        }
+        if (lower == 0 && upper == 0 && ones) {
+            return IDENTITY;
+        }
+        return new MatrixStructure(lower >= rows - 1 ? UNBOUNDED : lower, upper >= cols - 1 ? UNBOUNDED : upper, false);
+    }
+
+    /**
+     * True if every non-zero of matrix lies inside this structure.
+     */
+    public boolean admits(double[][] matrix) {
+        for (int i = 0; i < matrix.length; i++) {
+            for (int j = 0; j < matrix[i].length; j++) {
+                double x = matrix[i][j];
+                if (identity && (i == j ? x != 1 : x != 0)) {
+                    return false;
+                }
+                if (x != 0 && (i - j > lower || j - i > upper)) {
+                    return false;
+                }
+            }
+        }
+        return !identity || matrix.length == 0 || matrix.length == matrix[0].length;
+    }
+
+    public int lowerBandwidth() {
+        return lower;
+    }
+
+    public int upperBandwidth() {
+        return upper;
+    }
+
+    public boolean isGeneral() {
+        return lower == UNBOUNDED && upper == UNBOUNDED;
+    }
+
+    public boolean isIdentity() {
+        return identity;
+    }
+
+    public boolean isDiagonal() {
+        return lower == 0 && upper == 0;
+    }
+
+    /**
+     * True if a rows x cols matrix of this structure has known-zero regions worth skipping.
+     */
+    public boolean isBanded(int rows, int cols) {
+        return lower < rows - 1 || upper < cols - 1;
+    }
+
+    public MatrixStructure transpose() {
+        return identity ? this : new MatrixStructure(upper, lower, false);
+    }
+
+    public MatrixStructure negate() {
+        return identity ? DIAGONAL : this;
+    }
+
+    public MatrixStructure add(MatrixStructure other) {
+        return new MatrixStructure(Math.max(lower, other.lower), Math.max(upper, other.upper), false);
+    }
+
+    public MatrixStructure multiply(MatrixStructure other) {
+        if (identity) {
+            return other;
+        }
+        if (other.identity) {
+            return this;
+        }
+        return new MatrixStructure(saturatedAdd(lower, other.lower), saturatedAdd(upper, other.upper), false);
+    }
+
+    private static int saturatedAdd(int x, int y) {
+        long sum = (long) x + y;
+        return sum >= UNBOUNDED ? UNBOUNDED : (int) sum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof MatrixStructure)) {
+            return false;
+        }
+        MatrixStructure other = (MatrixStructure) o;
+        return lower == other.lower && upper == other.upper && identity == other.identity;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * lower + upper) + (identity ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        if (identity) {
+            return "identity";
+        }
+        if (isGeneral()) {
+            return "general";
+        }
+        if (isDiagonal()) {
+            return "diagonal";
+        }
+        if (upper == 0 && lower == UNBOUNDED) {
+            return "lower";
+        }
+        if (lower == 0 && upper == UNBOUNDED) {
+            return "upper";
+        }
+        return "banded:" + (lower == UNBOUNDED ? "*" : lower) + "," + (upper == UNBOUNDED ? "*" : upper);
+    }
+}
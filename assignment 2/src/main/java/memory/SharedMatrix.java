@@ -3,6 +3,12 @@ package memory;
 public class SharedMatrix {
 
     private volatile SharedVector[] vectors = {}; // underlying vectors
+    // true when the logical matrix is the transpose of what the vectors' orientation says,
+    // folded into the vectors only when one of them is handed out through get()
+    private volatile boolean transposed = false;
+    // storage owned by this matrix that came from a BufferPool, returned when it is replaced or released
+    private BufferPool pool = null;
+    private double[] pooledStorage = null;
 
     public SharedMatrix() {
         vectors = new SharedVector[0];
@@ -14,28 +20,132 @@ public class SharedMatrix {
         }
     }
 
+    /**
+     * Adopts a row-major storage array (rows * cols elements) without copying it.
+     * The caller must not use the array afterwards.
+     */
+    static SharedMatrix wrapRowMajor(double[] storage, int rows, int cols) {
+        return wrapRowMajor(storage, rows, cols, null);
+    }
+
+    /**
+     * Like wrapRowMajor(storage, rows, cols), for storage acquired from pool:
+     * the matrix owns it and hands it back on release().
+     */
+    static SharedMatrix wrapRowMajor(double[] storage, int rows, int cols, BufferPool pool) {
+        SharedVector[] newVectors = new SharedVector[rows];
+        for (int i = 0; i < rows; i++) {
+            newVectors[i] = new SharedVector(storage, i * cols, 1, cols, VectorOrientation.ROW_MAJOR);
+        }
+        SharedMatrix m = new SharedMatrix();
+        m.setVectors(newVectors, pool, storage);
+        return m;
+    }
+
     public void loadRowMajor(double[][] matrix) {
-        // TODO: replace internal data with new row-major matrix
+        loadRowMajor(matrix, null);
+    }
+
+    /**
+     * Loads a row-major matrix into storage taken from pool (or newly allocated if pool is null).
+     * The storage goes back to the pool when this matrix is reloaded or released,
+     * so vectors handed out by get() must not be used past that point.
+     */
+    public void loadRowMajor(double[][] matrix, BufferPool pool) {
         SharedVector[] newVectors = new SharedVector[matrix.length];
-        for (int i = 0; i < newVectors.length; i++) {
-            newVectors[i] = new SharedVector(matrix[i], VectorOrientation.ROW_MAJOR);
+        double[] storage = null;
+        if (isValidMatrix(matrix)) {
+            // one contiguous block, each row is a stride-1 view into it
+            int rowLength = matrix[0].length;
+            int size = matrix.length * rowLength;
+            storage = pool != null ? pool.acquire(size) : new double[size];
+            for (int i = 0; i < newVectors.length; i++) {
+                System.arraycopy(matrix[i], 0, storage, i * rowLength, rowLength);
+                newVectors[i] = new SharedVector(storage, i * rowLength, 1, rowLength, VectorOrientation.ROW_MAJOR);
+            }
+        } else {
+            // ragged or empty input cannot be packed, keep one array per row
+            for (int i = 0; i < newVectors.length; i++) {
+                newVectors[i] = new SharedVector(matrix[i], VectorOrientation.ROW_MAJOR);
+            }
         }
-        this.vectors = newVectors;
+        this.setVectors(newVectors, pool, storage);
 
     }
 
     public void loadColumnMajor(double[][] matrix) {
-        // TODO: replace internal data with new column-major matrix
         SharedVector[] newVectors = new SharedVector[matrix[0].length];
 
-        for (int i = 0; i < newVectors.length; i++) {
-            double[] temp = new double[matrix.length];
-            for (int j = 0; j < temp.length; j++) {
-                temp[j] = matrix[j][i];
+        if (isValidMatrix(matrix)) {
+            // one contiguous block stored column after column
+            int colLength = matrix.length;
+            double[] storage = new double[newVectors.length * colLength];
+            for (int i = 0; i < newVectors.length; i++) {
+                for (int j = 0; j < colLength; j++) {
+                    storage[i * colLength + j] = matrix[j][i];
+                }
+                newVectors[i] = new SharedVector(storage, i * colLength, 1, colLength, VectorOrientation.COLUMN_MAJOR);
+            }
+        } else {
+            for (int i = 0; i < newVectors.length; i++) {
+                double[] temp = new double[matrix.length];
+                for (int j = 0; j < temp.length; j++) {
+                    temp[j] = matrix[j][i];
+                }
+                newVectors[i] = new SharedVector(temp, VectorOrientation.COLUMN_MAJOR);
             }
-            newVectors[i] = new SharedVector(temp, VectorOrientation.COLUMN_MAJOR);
         }
+        this.setVectors(newVectors);
+    }
+
+    private void setVectors(SharedVector[] newVectors) {
+        setVectors(newVectors, null, null);
+    }
+
+    private synchronized void setVectors(SharedVector[] newVectors, BufferPool newPool, double[] newStorage) {
         this.vectors = newVectors;
+        this.transposed = false;
+        releaseStorage();
+        if (newPool != null && newStorage != null) {
+            this.pool = newPool;
+            this.pooledStorage = newStorage;
+        }
+    }
+
+    /**
+     * Empties this matrix and returns its pooled storage, if any, to its BufferPool.
+     * Vectors previously handed out by get() must not be used afterwards.
+     */
+    public synchronized void release() {
+        this.vectors = new SharedVector[0];
+        this.transposed = false;
+        releaseStorage();
+    }
+
+    private void releaseStorage() {
+        if (pool != null) {
+            pool.release(pooledStorage);
+        }
+        pool = null;
+        pooledStorage = null;
+    }
+
+    /**
+     * Transposes the matrix in O(1): only the interpretation of the storage changes,
+     * rows become columns and vice versa. No element is copied or moved.
+     */
+    public synchronized void transpose() {
+        this.transposed = !this.transposed;
+    }
+
+    // flips the orientation of every vector so that it matches the logical matrix again
+    private synchronized void foldTranspose() {
+        if (transposed) {
+            for (SharedVector v : vectors) {
+                v.transpose();
+            }
+            transposed = false;
+        }
     }
 
     private static boolean isValidMatrix(double[][] matrix) {
@@ -58,38 +168,150 @@ public class SharedMatrix {
     }
 
     public double[][] readRowMajor() {
-        this.acquireAllVectorReadLocks(this.vectors);
+        SharedVector[] vecs;
+        VectorOrientation orientation;
+        synchronized (this) {
+            vecs = this.vectors;
+            if (vecs.length == 0) return new double[0][0];
+            orientation = layoutOrientation(vecs);
+        }
+
+        // fast path: copy without locking, keep the copy only if no vector was written meanwhile
+        long[] stamps = new long[vecs.length];
+        boolean valid = true;
+        for (int i = 0; i < vecs.length && valid; i++) {
+            stamps[i] = vecs[i].tryOptimisticRead();
+            valid = stamps[i] != 0;
+        }
+        if (valid) {
+            try {
+                double[][] result = readRowMajorUnlocked(vecs, orientation);
+                if (SharedVector.validateAll(vecs, stamps)) {
+                    return result;
+                }
+            } catch (IllegalArgumentException ex) {
+                if (SharedVector.validateAll(vecs, stamps)) {
+                    throw ex;
+                }
+            } catch (RuntimeException ex) {
+                // torn read, retry under the locks
+            }
+        }
+
+        this.acquireAllVectorReadLocks(vecs);
         try {
-            if (vectors.length == 0) return new double[0][0];
+            return readRowMajorUnlocked(vecs, orientation);
+        } finally {
+            this.releaseAllVectorReadLocks(vecs);
+        }
+    }
 
-            VectorOrientation matrixOrientation = getOrientation();
-            if (matrixOrientation == VectorOrientation.ROW_MAJOR) {
-                int colLength = vectors[0].length();
-                int rowLength = this.length();
-                double[][] result = new double[rowLength][colLength];
+    private static double[][] readRowMajorUnlocked(SharedVector[] vecs, VectorOrientation orientation) {
+        if (orientation == VectorOrientation.ROW_MAJOR) {
+            int colLength = vecs[0].rawLength();
+            double[][] result = new double[vecs.length][colLength];
+            for (int i = 0; i < vecs.length; i++) {
+                copyOut(vecs[i], result[i]);
+            }
+            return result;
+        } else {
+            int rowLength = vecs[0].rawLength();
+            int colLength = vecs.length;
+            double[][] result = new double[rowLength][colLength];
+            // walk every column in storage order
+            for (int j = 0; j < colLength; j++) {
+                double[] data = vecs[j].storage();
+                int offset = vecs[j].offset();
+                int stride = vecs[j].stride();
                 for (int i = 0; i < rowLength; i++) {
-                    for (int j = 0; j < colLength; j++) {
-                        result[i][j] = vectors[i].get(j);
-                    }
+                    result[i][j] = data[offset + i * stride];
                 }
-                return result;
-            } else {
-                int rowLength = vectors[0].length();
-                int colLength = this.length();
-                double[][] result = new double[rowLength][colLength];
-                for (int j = 0; j < colLength; j++) {
-                    for (int i = 0; i < rowLength; i++) {
-                        result[i][j] = vectors[j].get(i);
-                    }
+            }
+            return result;
+        }
+    }
+
+    // copies the elements of a vector into a plain array, without locking
+    private static void copyOut(SharedVector v, double[] dest) {
+        double[] data = v.storage();
+        int offset = v.offset();
+        int stride = v.stride();
+        if (v.rawLength() < dest.length) {
+            throw new IllegalArgumentException("Illegal index");
+        }
+        if (stride == 1) {
+            System.arraycopy(data, offset, dest, 0, dest.length);
+        } else {
+            for (int i = 0; i < dest.length; i++) {
+                dest[i] = data[offset + i * stride];
+            }
+        }
+    }
+
+    /**
+     * Runs an in-place kernel over every vector of this matrix.
+     * All write locks are taken once up front and released after the last vector.
+     */
+    public void apply(Kernels.Unary kernel) {
+        if (kernel == null) {
+            throw new IllegalArgumentException("Illegal operation: null kernel");
+        }
+        SharedVector[] vecs = this.vectors;
+        this.acquireAllVectorWriteLocks(vecs);
+        try {
+            for (SharedVector v : vecs) {
+                kernel.apply(v.storage(), v.offset(), v.stride(), v.rawLength());
+            }
+        } finally {
+            this.releaseAllVectorWriteLocks(vecs);
+        }
+    }
+
+    /**
+     * Runs an in-place kernel this[i] = f(this[i], other[i]) over every pair of vectors.
+     * All locks of both matrices are taken once up front.
+     */
+    public void apply(SharedMatrix other, Kernels.Binary kernel) {
+        if (other == null) {
+            throw new IllegalArgumentException("Illegal operation: null matrix");
+        }
+        if (kernel == null) {
+            throw new IllegalArgumentException("Illegal operation: null kernel");
+        }
+        if (other == this) {
+            throw new IllegalArgumentException("Illegal operation: matrix used as both operands");
+        }
+        SharedVector[] vecs = this.vectors;
+        SharedVector[] others = other.vectors;
+        if (vecs.length != others.length) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        if (vecs.length > 0 && this.getOrientation() != other.getOrientation()) {
+            throw new IllegalArgumentException("Illegal operation: orientations mismatch");
+        }
+
+        this.acquireAllVectorWriteLocks(vecs);
+        this.acquireAllVectorReadLocks(others);
+        try {
+            for (int i = 0; i < vecs.length; i++) {
+                if (vecs[i].rawLength() != others[i].rawLength()) {
+                    throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
                 }
-                return result;
+            }
+            for (int i = 0; i < vecs.length; i++) {
+                kernel.apply(vecs[i].storage(), vecs[i].offset(), vecs[i].stride(),
+                        others[i].storage(), others[i].offset(), others[i].stride(), vecs[i].rawLength());
             }
         } finally {
-            this.releaseAllVectorReadLocks(this.vectors);
+            this.releaseAllVectorReadLocks(others);
+            this.releaseAllVectorWriteLocks(vecs);
         }
     }
 
     public SharedVector get(int index) {
+        if (transposed) {
+            foldTranspose();
+        }
         if (0 > index || index >= vectors.length) {
             throw new RuntimeException("Access to index " + index + " in matrix is not valid.");
         }
@@ -100,8 +322,71 @@ public class SharedMatrix {
         return vectors.length;
     }
 
-    public VectorOrientation getOrientation() {
-        return vectors[0].getOrientation();
+    // number of logical rows, whatever the storage orientation
+    public synchronized int rowCount() {
+        SharedVector[] vecs = this.vectors;
+        if (vecs.length == 0) return 0;
+        return layoutOrientation(vecs) == VectorOrientation.ROW_MAJOR ? vecs.length : vecs[0].length();
+    }
+
+    // number of logical columns, whatever the storage orientation
+    public synchronized int columnCount() {
+        SharedVector[] vecs = this.vectors;
+        if (vecs.length == 0) return 0;
+        return layoutOrientation(vecs) == VectorOrientation.ROW_MAJOR ? vecs[0].length() : vecs.length;
+    }
+
+    /**
+     * Copies the logical row-major content into dest, row i starting at dest[i * rowStride].
+     */
+    void readInto(double[] dest, int rowStride) {
+        VectorOrientation orientation;
+        SharedVector[] vecs;
+        synchronized (this) {
+            vecs = this.vectors;
+            orientation = vecs.length > 0 ? layoutOrientation(vecs) : VectorOrientation.ROW_MAJOR;
+        }
+        this.acquireAllVectorReadLocks(vecs);
+        try {
+            boolean rowMajor = orientation == VectorOrientation.ROW_MAJOR;
+            for (int v = 0; v < vecs.length; v++) {
+                double[] data = vecs[v].storage();
+                int offset = vecs[v].offset();
+                int stride = vecs[v].stride();
+                for (int i = 0; i < vecs[v].rawLength(); i++) {
+                    int target = rowMajor ? v * rowStride + i : i * rowStride + v;
+                    dest[target] = data[offset + i * stride];
+                }
+            }
+        } finally {
+            unlockAllForRead(vecs);
+        }
+    }
+
+    public synchronized VectorOrientation getOrientation() {
+        return layoutOrientation(vectors);
+    }
+
+    // logical orientation of the given vectors of this matrix, accounting for a pending transpose
+    private VectorOrientation layoutOrientation(SharedVector[] vecs) {
+        VectorOrientation stored = vecs[0].getOrientation();
+        if (!transposed) {
+            return stored;
+        }
+        return stored == VectorOrientation.ROW_MAJOR ? VectorOrientation.COLUMN_MAJOR : VectorOrientation.ROW_MAJOR;
+    }
+
+    // read locks every vector and returns the locked snapshot, to be released with unlockAllForRead
+    SharedVector[] lockAllForRead() {
+        SharedVector[] vecs = this.vectors;
+        acquireAllVectorReadLocks(vecs);
+        return vecs;
+    }
+
+    static void unlockAllForRead(SharedVector[] vecs) {
+        for (int i = 0; i < vecs.length; i++) {
+            vecs[i].readUnlock();
+        }
     }
 
     private void acquireAllVectorReadLocks(SharedVector[] vecs) {
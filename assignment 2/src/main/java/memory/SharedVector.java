@@ -1,12 +1,16 @@
 package memory;
 
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.Arrays;
 
 public class SharedVector {
 
-    private double[] vector;
+    private double[] vector; // backing storage, may be shared with other vectors of a SharedMatrix
+    private int offset; // position of element 0 inside the backing storage
+    private int stride; // distance between two consecutive elements inside the backing storage
+    private int length;
     private VectorOrientation orientation;
-    private ReadWriteLock lock = new java.util.concurrent.locks.ReentrantReadWriteLock();
+    private final StampedLock lock = new StampedLock();
 
     public SharedVector(double[] vector, VectorOrientation orientation) {
         if (vector == null) {
@@ -21,48 +25,121 @@ public class SharedVector {
         for (int i = 0; i < vector.length; i++) {
             this.vector[i] = vector[i];
         }
+        this.offset = 0;
+        this.stride = 1;
+        this.length = vector.length;
+        this.orientation = orientation;
+    }
+
+    /**
+     * Creates a view over a slice of an existing storage array, without copying it.
+     * Element i of the view is storage[offset + i * stride].
+     * Used by SharedMatrix to expose the rows/columns of its contiguous storage.
+     */
+    SharedVector(double[] storage, int offset, int stride, int length, VectorOrientation orientation) {
+        this.vector = storage;
+        this.offset = offset;
+        this.stride = stride;
+        this.length = length;
         this.orientation = orientation;
     }
 
     public double get(int index) {
-        this.readLock();
-        if (index < 0 || index >= this.length()) {
-            this.readUnlock();
-            throw new IllegalArgumentException("Illegal index");
+        // optimistic read: snapshot the view, then make sure no writer interfered
+        long stamp = lock.tryOptimisticRead();
+        double[] data = this.vector;
+        int off = this.offset;
+        int str = this.stride;
+        int len = this.length;
+        if (lock.validate(stamp)) {
+            if (index < 0 || index >= len) {
+                throw new IllegalArgumentException("Illegal index");
+            }
+            double result = data[off + index * str];
+            if (lock.validate(stamp)) {
+                return result;
+            }
+        }
+
+        // a writer got in the way, fall back to a real read lock
+        stamp = lock.readLock();
+        try {
+            if (index < 0 || index >= this.length) {
+                throw new IllegalArgumentException("Illegal index");
+            }
+            return this.vector[this.offset + index * this.stride];
+        } finally {
+            lock.unlockRead(stamp);
         }
-        double result = this.vector[index];
-        this.readUnlock();
-        return result;
     }
 
     public int length() {
-        this.readLock();
-        int len = this.vector.length;
-        this.readUnlock();
+        long stamp = lock.tryOptimisticRead();
+        int len = this.length;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            len = this.length;
+            lock.unlockRead(stamp);
+        }
         return len;
     }
 
     public VectorOrientation getOrientation() {
-        this.readLock();
+        long stamp = lock.tryOptimisticRead();
         VectorOrientation o = this.orientation;
-        this.readUnlock();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            o = this.orientation;
+            lock.unlockRead(stamp);
+        }
         return o;
     }
 
+    // raw view accessors, only valid while holding this vector's lock (or inside a validated optimistic read)
+    double[] storage() {
+        return vector;
+    }
+
+    int offset() {
+        return offset;
+    }
+
+    int stride() {
+        return stride;
+    }
+
+    int rawLength() {
+        return length;
+    }
+
+    VectorOrientation rawOrientation() {
+        return orientation;
+    }
+
+    // stamp for an optimistic read, 0 if the vector is currently write locked
+    long tryOptimisticRead() {
+        return lock.tryOptimisticRead();
+    }
+
+    boolean validate(long stamp) {
+        return stamp != 0 && lock.validate(stamp);
+    }
+
+    // StampedLock is not reentrant: callers holding a lock must use the raw accessors above
     public void writeLock() {
-        lock.writeLock().lock();
+        lock.asWriteLock().lock();
     }
 
     public void writeUnlock() {
-        lock.writeLock().unlock();
+        lock.asWriteLock().unlock();
     }
 
     public void readLock() {
-        lock.readLock().lock();
+        lock.asReadLock().lock();
     }
 
     public void readUnlock() {
-        lock.readLock().unlock();
+        lock.asReadLock().unlock();
     }
 
     public void transpose() {
@@ -76,141 +153,400 @@ public class SharedVector {
     }
 
     public void add(SharedVector other) {
+        update(other, Kernels.ADD, true);
+    }
+
+    public void negate() {
+        apply(Kernels.NEGATE);
+    }
+
+    /**
+     * Like add(other), over elements [from, to) only. Holds the same locks as add(other), so that
+     * optimistic readers of this vector notice the write; updates of disjoint ranges of one vector
+     * therefore run one after the other.
+     */
+    public void add(SharedVector other, int from, int to) {
         if (other == null) {
             throw new IllegalArgumentException("Illegal operation: null vector");
         }
-
         this.writeLock();
-        other.readLock();
-
-        if (this.length() != other.length()) {
+        // when other == this the write lock already covers the read side
+        if (other != this) {
+            other.readLock();
+        }
+        try {
+            if (this.length != other.length) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+            if (this.orientation != other.orientation) {
+                throw new IllegalArgumentException("Illegal operation: orientations mismatch");
+            }
+            checkRange(from, to);
+            Kernels.ADD.apply(this.vector, this.offset + from * this.stride, this.stride,
+                    other.vector, other.offset + from * other.stride, other.stride, to - from);
+        } finally {
+            if (other != this) {
+                other.readUnlock();
+            }
             this.writeUnlock();
-            other.readUnlock();
-            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
         }
-        if (this.getOrientation() != other.getOrientation()) {
+    }
+
+    /**
+     * Like negate(), over elements [from, to) only, under the write lock.
+     */
+    public void negate(int from, int to) {
+        this.writeLock();
+        try {
+            checkRange(from, to);
+            Kernels.NEGATE.apply(this.vector, this.offset + from * this.stride, this.stride, to - from);
+        } finally {
             this.writeUnlock();
-            other.readUnlock();
-            throw new IllegalArgumentException("Illegal operation: orientations mismatch");
         }
+    }
 
-        for (int i = 0; i < this.length(); i++) {
-            this.vector[i] = this.vector[i] + other.vector[i];
+    /**
+     * Copy of elements [from, to).
+     */
+    public double[] read(int from, int to) {
+        this.readLock();
+        try {
+            checkRange(from, to);
+            double[] values = new double[to - from];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = this.vector[this.offset + (from + i) * this.stride];
+            }
+            return values;
+        } finally {
+            this.readUnlock();
         }
+    }
 
-        other.readUnlock();
-        this.writeUnlock();
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || from > to || to > this.length) {
+            throw new IllegalArgumentException("Illegal index");
+        }
     }
 
-    public void negate() {
+    public double dot(SharedVector other) {
+        return reduce(other, Kernels.DOT, true);
+    }
+
+    /**
+     * Runs an in-place kernel over this vector, holding the write lock once for the whole call.
+     */
+    public void apply(Kernels.Unary kernel) {
+        if (kernel == null) {
+            throw new IllegalArgumentException("Illegal operation: null kernel");
+        }
         this.writeLock();
-        for (int i = 0; i < this.length(); i++) {
-            this.vector[i] = this.vector[i] * (-1);
+        try {
+            kernel.apply(this.vector, this.offset, this.stride, this.length);
+        } finally {
+            this.writeUnlock();
         }
-        this.writeUnlock();
     }
 
-    public double dot(SharedVector other) {
+    /**
+     * Runs an in-place kernel this = f(this, other), holding the write lock of this vector
+     * and the read lock of other once for the whole call.
+     */
+    public void apply(SharedVector other, Kernels.Binary kernel) {
+        update(other, kernel, false);
+    }
+
+    /**
+     * Runs a reduction kernel over this vector and other.
+     * The kernel first runs without any lock and is re-run under read locks only if a writer interfered.
+     */
+    public double reduce(SharedVector other, Kernels.Reduction kernel) {
+        return reduce(other, kernel, false);
+    }
+
+    private void update(SharedVector other, Kernels.Binary kernel, boolean sameOrientation) {
         if (other == null) {
             throw new IllegalArgumentException("Illegal operation: null vector");
         }
+        if (kernel == null) {
+            throw new IllegalArgumentException("Illegal operation: null kernel");
+        }
 
-        this.readLock();
-        other.readLock();
+        this.writeLock();
+        // when other == this the write lock already covers the read side
+        if (other != this) {
+            other.readLock();
+        }
+        try {
+            if (this.length != other.length) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+            if (sameOrientation && this.orientation != other.orientation) {
+                throw new IllegalArgumentException("Illegal operation: orientations mismatch");
+            }
+            kernel.apply(this.vector, this.offset, this.stride,
+                    other.vector, other.offset, other.stride, this.length);
+        } finally {
+            if (other != this) {
+                other.readUnlock();
+            }
+            this.writeUnlock();
+        }
+    }
 
-        if (this.getOrientation() == other.getOrientation()) {
-            this.readUnlock();
-            other.readUnlock();
-            throw new IllegalArgumentException("Illegal operation: orientations mismatch");
+    private double reduce(SharedVector other, Kernels.Reduction kernel, boolean oppositeOrientation) {
+        if (other == null) {
+            throw new IllegalArgumentException("Illegal operation: null vector");
         }
-        if (this.length() != other.length()) {
-            this.readUnlock();
-            other.readUnlock();
-            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        if (kernel == null) {
+            throw new IllegalArgumentException("Illegal operation: null kernel");
         }
 
-        double result = 0;
-        for (int i = 0; i < this.length(); i++) {
-            result += this.get(i) * other.get(i);
+        // fast path: no lock at all, valid only if neither vector was written meanwhile
+        long thisStamp = this.tryOptimisticRead();
+        long otherStamp = other.tryOptimisticRead();
+        if (this.validate(thisStamp) && other.validate(otherStamp)) {
+            try {
+                double result = reduceUnlocked(other, kernel, oppositeOrientation);
+                if (this.validate(thisStamp) && other.validate(otherStamp)) {
+                    return result;
+                }
+            } catch (IllegalArgumentException ex) {
+                if (this.validate(thisStamp) && other.validate(otherStamp)) {
+                    throw ex;
+                }
+            } catch (RuntimeException ex) {
+                // torn read of a vector that was being resized, retry under the locks
+            }
         }
 
-        other.readUnlock();
-        this.readUnlock();
-        return result;
+        this.readLock();
+        if (other != this) {
+            other.readLock();
+        }
+        try {
+            return reduceUnlocked(other, kernel, oppositeOrientation);
+        } finally {
+            if (other != this) {
+                other.readUnlock();
+            }
+            this.readUnlock();
+        }
+    }
+
+    private double reduceUnlocked(SharedVector other, Kernels.Reduction kernel, boolean oppositeOrientation) {
+        if (oppositeOrientation && this.orientation == other.orientation) {
+            throw new IllegalArgumentException("Illegal operation: orientations mismatch");
+        }
+        if (this.length != other.length) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        return kernel.apply(this.vector, this.offset, this.stride,
+                other.vector, other.offset, other.stride, this.length);
     }
 
     public void vecMatMul(SharedMatrix matrix) {
+        vecMatMul(matrix, null);
+    }
+
+    /**
+     * Like vecMatMul(matrix), with the temporary product buffer taken from pool whenever the product
+     * keeps the length of this vector: it is then copied into place and handed back right away.
+     */
+    public void vecMatMul(SharedMatrix matrix, BufferPool pool) {
         if (matrix == null) {
             throw new IllegalArgumentException("Illegal operation: null matrix");
         }
         if (matrix.length() == 0) {
             throw new IllegalArgumentException("Illegal operation: empty matrix");
         }
-        if (matrix.get(0) == null) {
-            throw new IllegalArgumentException("Illegal operation: null column/row");
+
+        SharedVector[] vecs = new SharedVector[matrix.length()];
+        for (int i = 0; i < vecs.length; i++) {
+            vecs[i] = matrix.get(i);
+            if (vecs[i] == null) {
+                throw new IllegalArgumentException("Illegal operation: null column/row");
+            }
         }
 
-        double[] temp;
-        double sum;
+        // fast path: read everything optimistically, then upgrade our own stamp to a write lock
+        long thisStamp = this.tryOptimisticRead();
+        long[] stamps = new long[vecs.length];
+        boolean valid = thisStamp != 0;
+        for (int i = 0; i < vecs.length && valid; i++) {
+            stamps[i] = vecs[i].tryOptimisticRead();
+            valid = stamps[i] != 0;
+        }
+        if (valid) {
+            int n = resultLength(vecs);
+            boolean pooled = pool != null && n == this.length;
+            double[] temp = pooled ? pool.acquire(n) : new double[n];
+            boolean computed = false;
+            try {
+                vecMatMulUnlocked(vecs, temp, n);
+                computed = true;
+            } catch (IllegalArgumentException ex) {
+                if (this.validate(thisStamp) && validateAll(vecs, stamps)) {
+                    release(pool, temp, pooled);
+                    throw ex;
+                }
+            } catch (RuntimeException ex) {
+                // torn read, retry under the locks
+            }
+            if (computed && validateAll(vecs, stamps)) {
+                long writeStamp = lock.tryConvertToWriteLock(thisStamp);
+                if (writeStamp != 0) {
+                    try {
+                        this.assign(temp, n, !pooled);
+                    } finally {
+                        lock.unlockWrite(writeStamp);
+                        release(pool, temp, pooled);
+                    }
+                    return;
+                }
+            }
+            release(pool, temp, pooled);
+        }
 
+        // slow path: write lock on this vector, read locks on the whole matrix
         this.writeLock();
-
-        // lock all vectors in the matrix (and guard against null entries)
-        for (int i = 0; i < matrix.length(); i++) {
-            SharedVector v = matrix.get(i);
-            if (v == null) {
-                // unlock what we already locked
-                for (int k = 0; k < i; k++) {
-                    matrix.get(k).readUnlock();
+        int locked = 0;
+        try {
+            for (; locked < vecs.length; locked++) {
+                if (vecs[locked] != this) {
+                    vecs[locked].readLock();
                 }
-                this.writeUnlock();
-                throw new IllegalArgumentException("Illegal operation: null column/row");
             }
-            v.readLock();
+            int n = resultLength(vecs);
+            boolean pooled = pool != null && n == this.length;
+            double[] temp = pooled ? pool.acquire(n) : new double[n];
+            try {
+                vecMatMulUnlocked(vecs, temp, n);
+                this.assign(temp, n, !pooled);
+            } finally {
+                release(pool, temp, pooled);
+            }
+        } finally {
+            for (int i = 0; i < locked; i++) {
+                if (vecs[i] != this) {
+                    vecs[i].readUnlock();
+                }
+            }
+            this.writeUnlock();
         }
+    }
 
-        if (matrix.getOrientation() == VectorOrientation.COLUMN_MAJOR) {
-            if (matrix.get(0).length() != this.length()) {
-                for (int i = 0; i < matrix.length(); i++) {
-                    matrix.get(i).readUnlock();
+    /**
+     * this * matrix into a new array, leaving this vector as it is (vecMatMul without the write back).
+     */
+    public double[] product(SharedMatrix matrix) {
+        if (matrix == null) {
+            throw new IllegalArgumentException("Illegal operation: null matrix");
+        }
+        if (matrix.length() == 0) {
+            throw new IllegalArgumentException("Illegal operation: empty matrix");
+        }
+        SharedVector[] vecs = new SharedVector[matrix.length()];
+        for (int i = 0; i < vecs.length; i++) {
+            vecs[i] = matrix.get(i);
+            if (vecs[i] == null) {
+                throw new IllegalArgumentException("Illegal operation: null column/row");
+            }
+        }
+        this.readLock();
+        int locked = 0;
+        try {
+            for (; locked < vecs.length; locked++) {
+                if (vecs[locked] != this) {
+                    vecs[locked].readLock();
                 }
-                this.writeUnlock();
+            }
+            int n = resultLength(vecs);
+            double[] values = new double[n];
+            vecMatMulUnlocked(vecs, values, n);
+            return values;
+        } finally {
+            for (int i = 0; i < locked; i++) {
+                if (vecs[i] != this) {
+                    vecs[i].readUnlock();
+                }
+            }
+            this.readUnlock();
+        }
+    }
+
+
+    private static void release(BufferPool pool, double[] buffer, boolean pooled) {
+        if (pooled) {
+            pool.release(buffer);
+        }
+    }
+
+    // true if none of the vectors was write locked since its stamp was taken
+    static boolean validateAll(SharedVector[] vecs, long[] stamps) {
+        for (int i = 0; i < vecs.length; i++) {
+            if (!vecs[i].validate(stamps[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // length of this * matrix: one element per column of the matrix
+    private static int resultLength(SharedVector[] vecs) {
+        return vecs[0].orientation == VectorOrientation.COLUMN_MAJOR ? vecs.length : vecs[0].length;
+    }
+
+    // computes this * matrix into temp[0, n) without touching any lock
+    private void vecMatMulUnlocked(SharedVector[] vecs, double[] temp, int n) {
+        if (vecs[0].orientation == VectorOrientation.COLUMN_MAJOR) {
+            if (vecs[0].length != this.length || n != vecs.length) {
                 throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
             }
 
-            temp = new double[matrix.length()];
-            for (int j = 0; j < temp.length; j++) {
-                sum = 0;
-                for (int i = 0; i < this.length(); i++) {
-                    sum += this.get(i) * matrix.get(j).get(i);
+            // one dot product per column, each column is walked sequentially
+            for (int j = 0; j < n; j++) {
+                SharedVector col = vecs[j];
+                if (col.length != this.length) {
+                    throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
                 }
-                temp[j] = sum;
+                temp[j] = Kernels.DOT.apply(this.vector, this.offset, this.stride,
+                        col.vector, col.offset, col.stride, this.length);
             }
 
         } else {
 
-            if (matrix.length() != this.length()) {
-                for (int i = 0; i < matrix.length(); i++) {
-                    matrix.get(i).readUnlock();
-                }
-                this.writeUnlock();
+            if (vecs.length != this.length) {
                 throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
             }
 
-            temp = new double[matrix.get(0).length()];
-            for (int j = 0; j < temp.length; j++) {
-                sum = 0;
-                for (int i = 0; i < matrix.length(); i++) {
-                    sum = sum + (matrix.get(i).get(j) * this.get(i));
+            // accumulate scaled rows, so the matrix is walked row by row in storage order
+            Arrays.fill(temp, 0, n, 0.0);
+            for (int i = 0; i < vecs.length; i++) {
+                SharedVector row = vecs[i];
+                if (row.length != n) {
+                    throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
                 }
-                temp[j] = sum;
+                Kernels.AXPY.apply(this.vector[this.offset + i * this.stride],
+                        row.vector, row.offset, row.stride, temp, 0, 1, n);
             }
         }
+    }
 
-        for (int i = 0; i < matrix.length(); i++) {
-            matrix.get(i).readUnlock();
+    // replaces the content of this vector with values[0, count), caller must hold the write lock.
+    // values may become the new storage only if adopt is set
+    private void assign(double[] values, int count, boolean adopt) {
+        if (count == this.length) {
+            // same shape: write through, so a view keeps sharing its matrix storage
+            for (int i = 0; i < count; i++) {
+                this.vector[this.offset + i * this.stride] = values[i];
+            }
+        } else {
+            // shape changed: the vector detaches from its previous storage
+            this.vector = adopt && values.length == count ? values : Arrays.copyOf(values, count);
+            this.offset = 0;
+            this.stride = 1;
+            this.length = count;
         }
-        this.vector = temp;
-        this.writeUnlock();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,377 @@
+package memory;
+
+import java.util.Arrays;
+
+/**
+ * Compressed sparse matrix. A ROW_MAJOR matrix is stored as CSR (one compressed vector per row),
+ * a COLUMN_MAJOR matrix as CSC (one compressed vector per column).
+ * Major vector v holds indices[pointers[v] .. pointers[v + 1]) (sorted) and the matching values.
+ *
+ * SparseMatrix is immutable, so it needs no locks: operations write their result into a
+ * new matrix (through a Builder, or a dense output array), one range of major vectors at a time,
+ * so that disjoint ranges can be computed by different tasks.
+ */
+public class SparseMatrix {
+
+    /** Matrices with at most this fraction of non-zeros are worth storing sparse. */
+    public static final double DEFAULT_DENSITY_THRESHOLD = 0.1;
+
+    private final int rows;
+    private final int cols;
+    private final VectorOrientation orientation;
+    private final int[] pointers;
+    private final int[] indices;
+    private final double[] values;
+
+    private SparseMatrix(int rows, int cols, VectorOrientation orientation,
+                         int[] pointers, int[] indices, double[] values) {
+        this.rows = rows;
+        this.cols = cols;
+        this.orientation = orientation;
+        this.pointers = pointers;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Compresses a dense row-major matrix into CSR form.
+     */
+    public static SparseMatrix fromDense(double[][] matrix) {
+        if (matrix == null || matrix.length == 0 || matrix[0] == null) {
+            throw new IllegalArgumentException("Illegal operation: empty matrix");
+        }
+        int rows = matrix.length;
+        int cols = matrix[0].length;
+        int count = 0;
+        for (double[] row : matrix) {
+            if (row == null || row.length != cols) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+            for (double x : row) {
+                if (x != 0) {
+                    count++;
+                }
+            }
+        }
+
+        int[] pointers = new int[rows + 1];
+        int[] indices = new int[count];
+        double[] values = new double[count];
+        int k = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                if (matrix[i][j] != 0) {
+                    indices[k] = j;
+                    values[k] = matrix[i][j];
+                    k++;
+                }
+            }
+            pointers[i + 1] = k;
+        }
+        return new SparseMatrix(rows, cols, VectorOrientation.ROW_MAJOR, pointers, indices, values);
+    }
+
+    /**
+     * Fraction of non-zero elements, 1 for a matrix without elements.
+     */
+    public static double density(double[][] matrix) {
+        long size = 0;
+        long count = 0;
+        for (double[] row : matrix) {
+            size += row.length;
+            for (double x : row) {
+                if (x != 0) {
+                    count++;
+                }
+            }
+        }
+        return size == 0 ? 1 : (double) count / size;
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    public int columnCount() {
+        return cols;
+    }
+
+    public int nonZeros() {
+        return pointers[pointers.length - 1];
+    }
+
+    public VectorOrientation getOrientation() {
+        return orientation;
+    }
+
+    // number of compressed vectors: rows for CSR, columns for CSC
+    public int majorCount() {
+        return pointers.length - 1;
+    }
+
+    /**
+     * O(1) transpose: the CSR arrays of A are exactly the CSC arrays of A^T (and vice versa).
+     */
+    public SparseMatrix transpose() {
+        VectorOrientation flipped = orientation == VectorOrientation.ROW_MAJOR
+                ? VectorOrientation.COLUMN_MAJOR : VectorOrientation.ROW_MAJOR;
+        return new SparseMatrix(cols, rows, flipped, pointers, indices, values);
+    }
+
+    /**
+     * Same matrix in the requested compression (CSR for ROW_MAJOR, CSC for COLUMN_MAJOR).
+     * Converting costs O(nnz + rows + cols), returning this when already there costs nothing.
+     */
+    public SparseMatrix toOrientation(VectorOrientation target) {
+        if (target == orientation) {
+            return this;
+        }
+        int minorCount = orientation == VectorOrientation.ROW_MAJOR ? cols : rows;
+        int[] newPointers = new int[minorCount + 1];
+        for (int k = 0; k < nonZeros(); k++) {
+            newPointers[indices[k] + 1]++;
+        }
+        for (int v = 0; v < minorCount; v++) {
+            newPointers[v + 1] += newPointers[v];
+        }
+        int[] next = Arrays.copyOf(newPointers, minorCount);
+        int[] newIndices = new int[nonZeros()];
+        double[] newValues = new double[nonZeros()];
+        // walking the old major vectors in order keeps the new vectors sorted
+        for (int v = 0; v < majorCount(); v++) {
+            for (int k = pointers[v]; k < pointers[v + 1]; k++) {
+                int slot = next[indices[k]]++;
+                newIndices[slot] = v;
+                newValues[slot] = values[k];
+            }
+        }
+        return new SparseMatrix(rows, cols, target, newPointers, newIndices, newValues);
+    }
+
+    public double[][] readRowMajor() {
+        double[][] result = new double[rows][cols];
+        boolean rowMajor = orientation == VectorOrientation.ROW_MAJOR;
+        for (int v = 0; v < majorCount(); v++) {
+            for (int k = pointers[v]; k < pointers[v + 1]; k++) {
+                if (rowMajor) {
+                    result[v][indices[k]] = values[k];
+                } else {
+                    result[indices[k]][v] = values[k];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the negated values of major vectors [from, to) into out (indexed like this matrix's values).
+     * The result is assembled with withValues(out).
+     */
+    public void negateRange(double[] out, int from, int to) {
+        for (int k = pointers[from]; k < pointers[to]; k++) {
+            out[k] = -values[k];
+        }
+    }
+
+    /**
+     * Same sparsity pattern with other values, for element-wise results such as negateRange.
+     */
+    public SparseMatrix withValues(double[] newValues) {
+        if (newValues.length != values.length) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        return new SparseMatrix(rows, cols, orientation, pointers, indices, newValues);
+    }
+
+    /**
+     * out[v] = this[v] + other[v] for major vectors [from, to).
+     * Both matrices must have the same shape and orientation.
+     */
+    public void addRange(SparseMatrix other, Builder out, int from, int to) {
+        requireSameShape(other);
+        int[] idx = new int[Math.min(out.minorCount, 16)];
+        double[] val = new double[idx.length];
+        for (int v = from; v < to; v++) {
+            int a = pointers[v], aEnd = pointers[v + 1];
+            int b = other.pointers[v], bEnd = other.pointers[v + 1];
+            int capacity = (aEnd - a) + (bEnd - b);
+            if (idx.length < capacity) {
+                idx = new int[capacity];
+                val = new double[capacity];
+            }
+            int count = 0;
+            // merge of two sorted index lists
+            while (a < aEnd || b < bEnd) {
+                int ia = a < aEnd ? indices[a] : Integer.MAX_VALUE;
+                int ib = b < bEnd ? other.indices[b] : Integer.MAX_VALUE;
+                double x;
+                int index;
+                if (ia == ib) {
+                    index = ia;
+                    x = values[a++] + other.values[b++];
+                } else if (ia < ib) {
+                    index = ia;
+                    x = values[a++];
+                } else {
+                    index = ib;
+                    x = other.values[b++];
+                }
+                if (x != 0) {
+                    idx[count] = index;
+                    val[count] = x;
+                    count++;
+                }
+            }
+            out.setVector(v, idx, val, count);
+        }
+    }
+
+    /**
+     * Rows [from, to) of this * dense, written into the dense row-major out.
+     * This matrix must be CSR.
+     */
+    public void multiplyDenseRange(double[][] dense, double[][] out, int from, int to) {
+        requireRowMajor();
+        if (dense.length != cols) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        for (int i = from; i < to; i++) {
+            double[] target = out[i];
+            Arrays.fill(target, 0.0);
+            for (int k = pointers[i]; k < pointers[i + 1]; k++) {
+                double[] row = dense[indices[k]];
+                Kernels.AXPY.apply(values[k], row, 0, 1, target, 0, 1, target.length);
+            }
+        }
+    }
+
+    /**
+     * Rows [from, to) of dense * sparse, written into the dense row-major out.
+     * sparse must be CSR.
+     */
+    public static void multiplyDenseRange(double[][] dense, SparseMatrix sparse, double[][] out, int from, int to) {
+        sparse.requireRowMajor();
+        for (int i = from; i < to; i++) {
+            double[] left = dense[i];
+            if (left.length != sparse.rows) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+            double[] target = out[i];
+            Arrays.fill(target, 0.0);
+            for (int k = 0; k < left.length; k++) {
+                double a = left[k];
+                if (a == 0) {
+                    continue;
+                }
+                for (int p = sparse.pointers[k]; p < sparse.pointers[k + 1]; p++) {
+                    target[sparse.indices[p]] += a * sparse.values[p];
+                }
+            }
+        }
+    }
+
+    /**
+     * Rows [from, to) of this * other (Gustavson's row-by-row algorithm).
+     * Both matrices must be CSR, out must be a ROW_MAJOR builder.
+     */
+    public void multiplySparseRange(SparseMatrix other, Builder out, int from, int to) {
+        requireRowMajor();
+        other.requireRowMajor();
+        if (cols != other.rows) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        double[] accumulator = new double[other.cols];
+        boolean[] touched = new boolean[other.cols];
+        int[] pattern = new int[other.cols];
+        for (int i = from; i < to; i++) {
+            int count = 0;
+            for (int k = pointers[i]; k < pointers[i + 1]; k++) {
+                int row = indices[k];
+                double a = values[k];
+                for (int p = other.pointers[row]; p < other.pointers[row + 1]; p++) {
+                    int j = other.indices[p];
+                    if (!touched[j]) {
+                        touched[j] = true;
+                        pattern[count++] = j;
+                    }
+                    accumulator[j] += a * other.values[p];
+                }
+            }
+            Arrays.sort(pattern, 0, count);
+            int[] idx = new int[count];
+            double[] val = new double[count];
+            int kept = 0;
+            for (int c = 0; c < count; c++) {
+                int j = pattern[c];
+                if (accumulator[j] != 0) {
+                    idx[kept] = j;
+                    val[kept] = accumulator[j];
+                    kept++;
+                }
+                accumulator[j] = 0;
+                touched[j] = false;
+            }
+            out.setVector(i, idx, val, kept);
+        }
+    }
+
+    private void requireRowMajor() {
+        if (orientation != VectorOrientation.ROW_MAJOR) {
+            throw new IllegalArgumentException("Illegal operation: expected a CSR matrix");
+        }
+    }
+
+    private void requireSameShape(SparseMatrix other) {
+        if (other.rows != rows || other.cols != cols) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        if (other.orientation != orientation) {
+            throw new IllegalArgumentException("Illegal operation: orientations mismatch");
+        }
+    }
+
+    /**
+     * Collects the major vectors of a result, possibly from several tasks at once
+     * (each task must fill a disjoint set of vectors), then compresses them into a SparseMatrix.
+     */
+    public static class Builder {
+        private final int rows;
+        private final int cols;
+        private final VectorOrientation orientation;
+        private final int minorCount;
+        private final int[][] vectorIndices;
+        private final double[][] vectorValues;
+
+        public Builder(int rows, int cols, VectorOrientation orientation) {
+            this.rows = rows;
+            this.cols = cols;
+            this.orientation = orientation;
+            int majorCount = orientation == VectorOrientation.ROW_MAJOR ? rows : cols;
+            this.minorCount = orientation == VectorOrientation.ROW_MAJOR ? cols : rows;
+            this.vectorIndices = new int[majorCount][];
+            this.vectorValues = new double[majorCount][];
+        }
+
+        public void setVector(int major, int[] idx, double[] val, int count) {
+            vectorIndices[major] = Arrays.copyOf(idx, count);
+            vectorValues[major] = Arrays.copyOf(val, count);
+        }
+
+        public SparseMatrix build() {
+            int[] pointers = new int[vectorIndices.length + 1];
+            for (int v = 0; v < vectorIndices.length; v++) {
+                int count = vectorIndices[v] == null ? 0 : vectorIndices[v].length;
+                pointers[v + 1] = pointers[v] + count;
+            }
+            int[] indices = new int[pointers[vectorIndices.length]];
+            double[] values = new double[indices.length];
+            for (int v = 0; v < vectorIndices.length; v++) {
+                if (vectorIndices[v] != null) {
+                    System.arraycopy(vectorIndices[v], 0, indices, pointers[v], vectorIndices[v].length);
+                    System.arraycopy(vectorValues[v], 0, values, pointers[v], vectorValues[v].length);
+                }
+            }
+            return new SparseMatrix(rows, cols, orientation, pointers, indices, values);
+        }
+    }
+}
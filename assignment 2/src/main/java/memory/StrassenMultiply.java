@@ -0,0 +1,324 @@
+package memory;
+
+import java.util.Arrays;
+
+/**
+ * Strassen product C = A * B for square SharedMatrix operands.
+ * The operands are copied into zero-padded m x m scratch arrays, where m = c * 2^k and c <= cutoff,
+ * so that every recursion level splits evenly and the recursion bottoms out in the classic
+ * O(c^3) kernel exactly at the cutoff.
+ * The seven top-level sub-products are independent: product(i) can run concurrently for i in [0, 7),
+ * and combine() assembles C once all of them are done. Below the top level the recursion is sequential.
+ *
+ * With accumulate(C, alpha, beta) the result is alpha * A * B + beta * C, added in the
+ * same pass in which combine() writes C out.
+ *
+ * Usage: open(), then product(0..6) (from any thread), then combine() and result().
+ * With a BufferPool every scratch block is recycled through it, and the storage of result()
+ * is owned by the returned matrix (see SharedMatrix.release()).
+ */
+public class StrassenMultiply {
+
+    public static final int DEFAULT_CUTOFF = 128;
+    public static final int PRODUCTS = 7;
+
+    private final SharedMatrix left;
+    private final SharedMatrix right;
+    private final int cutoff;
+    private final BufferPool pool; // may be null
+    private SharedMatrix addend; // C of a GEMM, null for a plain product
+    private double alpha = 1;
+    private double beta = 1;
+
+    private int n; // size of the operands
+    private int m; // padded size
+    private double[] a;
+    private double[] b;
+    private double[][] products;
+    private double[] addendValues; // C, n x n row-major
+    private double[] result;
+
+    public StrassenMultiply(SharedMatrix left, SharedMatrix right) {
+        this(left, right, DEFAULT_CUTOFF);
+    }
+
+    public StrassenMultiply(SharedMatrix left, SharedMatrix right, int cutoff) {
+        this(left, right, cutoff, null);
+    }
+
+    public StrassenMultiply(SharedMatrix left, SharedMatrix right, int cutoff, BufferPool pool) {
+        if (left == null || right == null) {
+            throw new IllegalArgumentException("Illegal operation: null matrix");
+        }
+        if (cutoff <= 0) {
+            throw new IllegalArgumentException("Illegal operation: cutoff must be positive");
+        }
+        this.left = left;
+        this.right = right;
+        this.cutoff = cutoff;
+        this.pool = pool;
+    }
+
+    /**
+     * True if the product is worth running through Strassen:
+     * both operands square, of the same size, and larger than the cutoff.
+     */
+    public static boolean applies(SharedMatrix left, SharedMatrix right, int cutoff) {
+        int size = left.rowCount();
+        return size > cutoff && left.columnCount() == size
+                && right.rowCount() == size && right.columnCount() == size;
+    }
+
+    /**
+     * Turns the product into alpha * A * B + beta * C. Must be called before open().
+     */
+    public void accumulate(SharedMatrix c, double alpha, double beta) {
+        if (c == null) {
+            throw new IllegalArgumentException("Illegal operation: null matrix");
+        }
+        this.addend = c;
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+
+    /**
+     * Copies both operands into padded scratch arrays.
+     */
+    public void open() {
+        if (!applies(left, right, cutoff)) {
+            throw new IllegalArgumentException("Illegal operation: Strassen needs equal square operands above the cutoff");
+        }
+        n = left.rowCount();
+        int levels = 0;
+        while (ceilDiv(n, 1 << levels) > cutoff) {
+            levels++;
+        }
+        m = ceilDiv(n, 1 << levels) << levels;
+
+        // the padding must read as zeros
+        a = zeroed(m * m);
+        b = zeroed(m * m);
+        left.readInto(a, m);
+        right.readInto(b, m);
+        if (addend != null) {
+            if (addend.rowCount() != n || addend.columnCount() != n) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+            addendValues = buffer(n * n);
+            addend.readInto(addendValues, n);
+        }
+        products = new double[PRODUCTS][];
+    }
+
+    /**
+     * Computes the top-level sub-product M(index + 1) of the Strassen scheme.
+     */
+    public void product(int index) {
+        if (products == null) {
+            throw new IllegalStateException("Multiplication is not open");
+        }
+        int h = m / 2;
+        // quadrant offsets, the same for A and B since both have row stride m
+        int q11 = 0, q12 = h, q21 = h * m, q22 = h * m + h;
+        double[] x = buffer(h * h);
+        double[] y = buffer(h * h);
+        double[] out = buffer(h * h);
+
+        switch (index) {
+            case 0: // M1 = (A11 + A22)(B11 + B22)
+                combineInto(a, q11, m, a, q22, m, 1, x, h);
+                combineInto(b, q11, m, b, q22, m, 1, y, h);
+                multiply(x, 0, h, y, 0, h, out, 0, h, h);
+                break;
+            case 1: // M2 = (A21 + A22) B11
+                combineInto(a, q21, m, a, q22, m, 1, x, h);
+                multiply(x, 0, h, b, q11, m, out, 0, h, h);
+                break;
+            case 2: // M3 = A11 (B12 - B22)
+                combineInto(b, q12, m, b, q22, m, -1, y, h);
+                multiply(a, q11, m, y, 0, h, out, 0, h, h);
+                break;
+            case 3: // M4 = A22 (B21 - B11)
+                combineInto(b, q21, m, b, q11, m, -1, y, h);
+                multiply(a, q22, m, y, 0, h, out, 0, h, h);
+                break;
+            case 4: // M5 = (A11 + A12) B22
+                combineInto(a, q11, m, a, q12, m, 1, x, h);
+                multiply(x, 0, h, b, q22, m, out, 0, h, h);
+                break;
+            case 5: // M6 = (A21 - A11)(B11 + B12)
+                combineInto(a, q21, m, a, q11, m, -1, x, h);
+                combineInto(b, q11, m, b, q12, m, 1, y, h);
+                multiply(x, 0, h, y, 0, h, out, 0, h, h);
+                break;
+            case 6: // M7 = (A12 - A22)(B21 + B22)
+                combineInto(a, q12, m, a, q22, m, -1, x, h);
+                combineInto(b, q21, m, b, q22, m, 1, y, h);
+                multiply(x, 0, h, y, 0, h, out, 0, h, h);
+                break;
+            default:
+                throw new IllegalArgumentException("Illegal operation: no Strassen product " + index);
+        }
+        recycle(x);
+        recycle(y);
+        products[index] = out;
+    }
+
+    /**
+     * Assembles C from the seven sub-products and drops the scratch arrays.
+     */
+    public void combine() {
+        for (int i = 0; i < PRODUCTS; i++) {
+            if (products == null || products[i] == null) {
+                throw new IllegalStateException("Strassen product " + i + " was not computed");
+            }
+        }
+        int h = m / 2;
+        double[] c = buffer(m * m);
+        double[] m1 = products[0], m2 = products[1], m3 = products[2], m4 = products[3];
+        double[] m5 = products[4], m6 = products[5], m7 = products[6];
+        for (int i = 0; i < h; i++) {
+            for (int j = 0; j < h; j++) {
+                int q = i * h + j;
+                c[i * m + j] = output(i, j, m1[q] + m4[q] - m5[q] + m7[q]);
+                c[i * m + h + j] = output(i, h + j, m3[q] + m5[q]);
+                c[(h + i) * m + j] = output(h + i, j, m2[q] + m4[q]);
+                c[(h + i) * m + h + j] = output(h + i, h + j, m1[q] - m2[q] + m3[q] + m6[q]);
+            }
+        }
+
+        if (m == n) {
+            result = c;
+        } else {
+            // drop the zero padding
+            result = buffer(n * n);
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(c, i * m, result, i * n, n);
+            }
+            recycle(c);
+        }
+        recycle(a);
+        recycle(b);
+        recycle(addendValues);
+        for (double[] p : products) {
+            recycle(p);
+        }
+        a = null;
+        b = null;
+        addendValues = null;
+        products = null;
+    }
+
+    // final value of C[row][col]: the product itself, or alpha * product + beta * addend for a GEMM
+    private double output(int row, int col, double product) {
+        if (addendValues == null) {
+            return product;
+        }
+        if (row >= n || col >= n) {
+            return 0; // padding, dropped anyway
+        }
+        return alpha * product + beta * addendValues[row * n + col];
+    }
+
+    public SharedMatrix result() {
+        if (result == null) {
+            throw new IllegalStateException("Multiplication was not combined");
+        }
+        return SharedMatrix.wrapRowMajor(result, n, n, pool);
+    }
+
+    public int paddedSize() {
+        return m;
+    }
+
+    // c = a * b for size x size blocks stored with the given row strides
+    private void multiply(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride,
+                          double[] c, int cOff, int cStride, int size) {
+        if (size <= cutoff) {
+            for (int i = 0; i < size; i++) {
+                Arrays.fill(c, cOff + i * cStride, cOff + i * cStride + size, 0.0);
+                for (int k = 0; k < size; k++) {
+                    Kernels.AXPY.apply(a[aOff + i * aStride + k], b, bOff + k * bStride, 1,
+                            c, cOff + i * cStride, 1, size);
+                }
+            }
+            return;
+        }
+
+        int h = size / 2;
+        int a11 = aOff, a12 = aOff + h, a21 = aOff + h * aStride, a22 = aOff + h * aStride + h;
+        int b11 = bOff, b12 = bOff + h, b21 = bOff + h * bStride, b22 = bOff + h * bStride + h;
+        double[] x = buffer(h * h);
+        double[] y = buffer(h * h);
+        double[][] p = new double[PRODUCTS][];
+        for (int i = 0; i < PRODUCTS; i++) {
+            p[i] = buffer(h * h);
+        }
+
+        combineInto(a, a11, aStride, a, a22, aStride, 1, x, h);
+        combineInto(b, b11, bStride, b, b22, bStride, 1, y, h);
+        multiply(x, 0, h, y, 0, h, p[0], 0, h, h);
+        combineInto(a, a21, aStride, a, a22, aStride, 1, x, h);
+        multiply(x, 0, h, b, b11, bStride, p[1], 0, h, h);
+        combineInto(b, b12, bStride, b, b22, bStride, -1, y, h);
+        multiply(a, a11, aStride, y, 0, h, p[2], 0, h, h);
+        combineInto(b, b21, bStride, b, b11, bStride, -1, y, h);
+        multiply(a, a22, aStride, y, 0, h, p[3], 0, h, h);
+        combineInto(a, a11, aStride, a, a12, aStride, 1, x, h);
+        multiply(x, 0, h, b, b22, bStride, p[4], 0, h, h);
+        combineInto(a, a21, aStride, a, a11, aStride, -1, x, h);
+        combineInto(b, b11, bStride, b, b12, bStride, 1, y, h);
+        multiply(x, 0, h, y, 0, h, p[5], 0, h, h);
+        combineInto(a, a12, aStride, a, a22, aStride, -1, x, h);
+        combineInto(b, b21, bStride, b, b22, bStride, 1, y, h);
+        multiply(x, 0, h, y, 0, h, p[6], 0, h, h);
+
+        for (int i = 0; i < h; i++) {
+            int top = cOff + i * cStride;
+            int bottom = cOff + (h + i) * cStride;
+            for (int j = 0; j < h; j++) {
+                int q = i * h + j;
+                c[top + j] = p[0][q] + p[3][q] - p[4][q] + p[6][q];
+                c[top + h + j] = p[2][q] + p[4][q];
+                c[bottom + j] = p[1][q] + p[3][q];
+                c[bottom + h + j] = p[0][q] - p[1][q] + p[2][q] + p[5][q];
+            }
+        }
+        recycle(x);
+        recycle(y);
+        for (double[] block : p) {
+            recycle(block);
+        }
+    }
+
+    private double[] buffer(int length) {
+        return pool != null ? pool.acquire(length) : new double[length];
+    }
+
+    private double[] zeroed(int length) {
+        return pool != null ? pool.acquireZeroed(length) : new double[length];
+    }
+
+    private void recycle(double[] block) {
+        if (pool != null) {
+            pool.release(block);
+        }
+    }
+
+    // dest = x + sign * y for size x size blocks, dest is dense with row stride size
+    private static void combineInto(double[] x, int xOff, int xStride, double[] y, int yOff, int yStride,
+                                    double sign, double[] dest, int size) {
+        for (int i = 0; i < size; i++) {
+            int xRow = xOff + i * xStride;
+            int yRow = yOff + i * yStride;
+            int dRow = i * size;
+            for (int j = 0; j < size; j++) {
+                dest[dRow + j] = x[xRow + j] + sign * y[yRow + j];
+            }
+        }
+    }
+
+    private static int ceilDiv(int x, int y) {
+        return (x + y - 1) / y;
+    }
+}
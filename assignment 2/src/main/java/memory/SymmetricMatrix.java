@@ -0,0 +1,99 @@
+package memory;
+
+/**
+ * Immutable symmetric n x n matrix in packed form: only the upper triangle is stored,
+ * row by row, in n * (n + 1) / 2 elements. Element (i, j) with i <= j is at offset(i) + j - i,
+ * element (j, i) is the same value. A symmetric matrix is its own transpose.
+ */
+public class SymmetricMatrix {
+
+    private final int size;
+    private final double[] packed;
+
+    /**
+     * Wraps packed upper-triangle storage of length packedLength(size), which is not copied.
+     */
+    public SymmetricMatrix(int size, double[] packed) {
+        if (size < 0 || packed == null || packed.length != packedLength(size)) {
+            throw new IllegalArgumentException("Illegal operation: packed storage does not match the size");
+        }
+        this.size = size;
+        this.packed = packed;
+    }
+
+    public static int packedLength(int size) {
+        long length = (long) size * (size + 1) / 2;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Illegal operation: symmetric matrix too large");
+        }
+        return (int) length;
+    }
+
+    // start of row i of the upper triangle in the packed storage
+    static int offset(int size, int i) {
+        return (int) ((long) i * size - (long) i * (i - 1) / 2);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int packedLength() {
+        return packed.length;
+    }
+
+    public double get(int i, int j) {
+        if (i < 0 || j < 0 || i >= size || j >= size) {
+            throw new IndexOutOfBoundsException("Illegal operation: index out of bounds");
+        }
+        return i <= j ? packed[offset(size, i) + j - i] : packed[offset(size, j) + i - j];
+    }
+
+    /**
+     * Writes -x for packed elements [from, to) into out, which must be packedLength() long.
+     * See withValues().
+     */
+    public void negateRange(double[] out, int from, int to) {
+        for (int k = from; k < to; k++) {
+            out[k] = -packed[k];
+        }
+    }
+
+    /**
+     * A symmetric matrix of the same size with the given packed values.
+     */
+    public SymmetricMatrix withValues(double[] values) {
+        return new SymmetricMatrix(size, values);
+    }
+
+    /**
+     * Expands both triangles into a dense row-major matrix.
+     */
+    public double[][] readRowMajor() {
+        double[][] result = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            int base = offset(size, i) - i;
+            for (int j = i; j < size; j++) {
+                result[i][j] = packed[base + j];
+                result[j][i] = packed[base + j];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Expands into a full row-major SharedMatrix, with its storage taken from pool (if not null).
+     */
+    public SharedMatrix toShared(BufferPool pool) {
+        int length = size * size;
+        double[] storage = pool != null ? pool.acquire(length) : new double[length];
+        for (int i = 0; i < size; i++) {
+            int base = offset(size, i) - i;
+            for (int j = i; j < size; j++) {
+                storage[i * size + j] = packed[base + j];
+                storage[j * size + i] = packed[base + j];
+            }
+        }
+        return SharedMatrix.wrapRowMajor(storage, size, size, pool);
+    }
+}
@@ -0,0 +1,88 @@
+package memory;
+
+/**
+ * Gram product C = A * A^T, which is symmetric: only the upper triangle is computed, as dot products
+ * of the rows of A, and the result is kept packed (see SymmetricMatrix). About half the flops of
+ * a general product. A^T * A is the same product of the operand A^T.
+ *
+ * Rows are handed out in pairs (i, n - 1 - i), which together always hold n + 1 elements of the
+ * triangle, so equal ranges of pairs are equal amounts of work.
+ *
+ * Usage: open(), then multiplyPairs(...) over disjoint ranges of [0, pairCount()) (from any thread),
+ * then close() and result().
+ */
+public class SymmetricMultiply {
+
+    private final SharedMatrix operand;
+    private final BufferPool pool; // may be null
+
+    private int size;
+    private int depth;
+    private double[] a; // A, row-major
+    private double[] packed;
+
+    public SymmetricMultiply(SharedMatrix operand, BufferPool pool) {
+        if (operand == null) {
+            throw new IllegalArgumentException("Illegal operation: null matrix");
+        }
+        this.operand = operand;
+        this.pool = pool;
+    }
+
+    /**
+     * Copies the operand into a row-major scratch array, so that its rows are contiguous.
+     */
+    public void open() {
+        if (operand.length() == 0) {
+            throw new IllegalArgumentException("Illegal operation: empty matrix");
+        }
+        size = operand.rowCount();
+        depth = operand.columnCount();
+        a = pool != null ? pool.acquire(size * depth) : new double[size * depth];
+        operand.readInto(a, depth);
+        packed = new double[SymmetricMatrix.packedLength(size)];
+    }
+
+    public int pairCount() {
+        return (size + 1) / 2;
+    }
+
+    /**
+     * Computes the triangle rows of pairs [from, to).
+     */
+    public void multiplyPairs(int from, int to) {
+        if (a == null) {
+            throw new IllegalStateException("Multiplication is not open");
+        }
+        for (int p = from; p < to; p++) {
+            multiplyRow(p);
+            if (size - 1 - p != p) {
+                multiplyRow(size - 1 - p);
+            }
+        }
+    }
+
+    private void multiplyRow(int i) {
+        int base = SymmetricMatrix.offset(size, i) - i;
+        for (int j = i; j < size; j++) {
+            packed[base + j] = Kernels.DOT.apply(a, i * depth, 1, a, j * depth, 1, depth);
+        }
+    }
+
+    /**
+     * Hands the operand copy back to the pool.
+     */
+    public void close() {
+        if (pool != null) {
+            pool.release(a);
+        }
+        a = null;
+    }
+
+    public SymmetricMatrix result() {
+        if (packed == null) {
+            throw new IllegalStateException("Multiplication was never opened");
+        }
+        return new SymmetricMatrix(size, packed);
+    }
+}
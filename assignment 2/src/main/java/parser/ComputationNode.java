@@ -1,5 +1,12 @@
 package parser;
 
+import memory.FloatMatrix;
+import memory.MatrixStructure;
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+import memory.SymmetricMatrix;
+
+import java.util.ArrayList;
 import java.util.List;
 
 public class ComputationNode {
@@ -7,6 +14,14 @@ public class ComputationNode {
     private ComputationNodeType nodeType;
     private List<ComputationNode> children = null;
     private double[][] matrix = null; // only used for MATRIX nodes
+    private boolean transposed = false; // true if matrix holds the transpose of this node's value
+    private SparseMatrix sparse = null; // set instead of matrix for MATRIX nodes stored sparse
+    private FloatMatrix floatMatrix = null; // set instead of matrix for results computed in single precision
+    private SharedMatrix shared = null; // set instead of matrix for results kept in engine form
+    private SymmetricMatrix symmetric = null; // set instead of matrix for symmetric results, packed
+    private MatrixStructure structure = MatrixStructure.GENERAL; // known zero structure of the value
+    private double alpha = 1; // GEMM only: alpha * A * B + beta * C
+    private double beta = 1;
 
     public ComputationNode(String operatorStr, List<ComputationNode> children) throws IllegalArgumentException {
         this.nodeType = mapOperator(operatorStr);
@@ -33,11 +48,29 @@ public class ComputationNode {
         this.children = children;
     }
 
+    /**
+     * A GEMM node computing alpha * A * B + beta * C, children must be [A, B, C].
+     */
+    public ComputationNode(List<ComputationNode> children, double alpha, double beta) {
+        if (children == null || children.size() != 3) {
+            throw new IllegalArgumentException("GEMM needs exactly three operands");
+        }
+        this.nodeType = ComputationNodeType.GEMM;
+        this.children = children;
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+
     public ComputationNode(double[][] matrix) {
         this.nodeType = ComputationNodeType.MATRIX;
         this.matrix = matrix;
     }
 
+    public ComputationNode(SparseMatrix sparse) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.sparse = sparse;
+    }
+
     public ComputationNodeType getNodeType() {
         return nodeType;
     }
@@ -46,6 +79,25 @@ public class ComputationNode {
         return children;
     }
 
+    public MatrixStructure getStructure() {
+        return structure;
+    }
+
+    /**
+     * Declares the zero structure of this node's value, the engine trusts it when picking kernels.
+     */
+    public void setStructure(MatrixStructure structure) {
+        this.structure = structure == null ? MatrixStructure.GENERAL : structure;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public double getBeta() {
+        return beta;
+    }
+
     /**
      * Recursively finds the first resolvable node in the tree.
      * A resolvable node is defined as a node that is not of type MATRIX,
@@ -73,7 +125,7 @@ public class ComputationNode {
      * Effectively, this converts n-ary operations (n > 2) into binary operations.
      */
     public void associativeNesting() {
-        if (children != null && children.size() > 2) {
+        if (children != null && children.size() > 2 && nodeType != ComputationNodeType.GEMM) {
             ComputationNode lastChild = children.remove(children.size() - 1);
             ComputationNode newNode = new ComputationNode(nodeType, children);
             children = List.of(newNode, lastChild);
@@ -81,21 +133,301 @@ public class ComputationNode {
         }
     }
 
+    /**
+     * Rewrites every binary A * B + C in the tree (in either operand order) into a GEMM node,
+     * so that the addition happens inside the multiply kernel instead of in a separate pass.
+     * A negated product or addend, -(A * B) + C or A * B + -C, is folded into alpha or beta.
+     * Must run after associativeNesting(), on a tree that was not resolved yet.
+     */
+    public void fuseMultiplyAdd() {
+        if (children == null) {
+            return;
+        }
+        for (ComputationNode child : children) {
+            child.fuseMultiplyAdd();
+        }
+        if (nodeType != ComputationNodeType.ADD || children.size() != 2) {
+            return;
+        }
+
+        for (int p = 0; p < 2; p++) {
+            ComputationNode product = children.get(p);
+            ComputationNode addend = children.get(1 - p);
+            double newAlpha = 1;
+            double newBeta = 1;
+            if (product.isNegation()) {
+                product = product.children.get(0);
+                newAlpha = -1;
+            }
+            if (product.nodeType != ComputationNodeType.MULTIPLY || product.children.size() != 2) {
+                continue;
+            }
+            if (addend.isNegation()) {
+                addend = addend.children.get(0);
+                newBeta = -1;
+            }
+            nodeType = ComputationNodeType.GEMM;
+            children = new ArrayList<>(List.of(product.children.get(0), product.children.get(1), addend));
+            alpha = newAlpha;
+            beta = newBeta;
+            return;
+        }
+    }
+
+    private boolean isNegation() {
+        return nodeType == ComputationNodeType.NEGATE && children != null && children.size() == 1;
+    }
+
+    /**
+     * Resolves this node with the value of another resolved node, in whatever form it holds it.
+     * A resident matrix changes hands, the other node holds nothing afterwards.
+     */
+    public void resolve(ComputationNode resolved) {
+        if (resolved.nodeType != ComputationNodeType.MATRIX) {
+            throw new IllegalStateException("Cannot resolve from an unresolved node.");
+        }
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = resolved.matrix;
+        this.transposed = resolved.transposed;
+        this.sparse = resolved.sparse;
+        this.floatMatrix = resolved.floatMatrix;
+        this.shared = resolved.shared;
+        this.symmetric = resolved.symmetric;
+        resolved.shared = null;
+    }
+
     /**
      * Resolves this node by setting its type to MATRIX and storing the computed matrix.
      */
     public void resolve(double[][] matrix) {
+        resolve(matrix, false);
+    }
+
+    /**
+     * Resolves this node with a matrix that may be stored transposed.
+     * A transposed matrix is kept as-is and only materialized if getMatrix() is called,
+     * which makes TRANSPOSE nodes free for consumers that can read the stored layout.
+     */
+    public void resolve(double[][] matrix, boolean transposed) {
         this.nodeType = ComputationNodeType.MATRIX;
         this.children = null;
         this.matrix = matrix;
+        this.transposed = transposed;
+        this.sparse = null;
+        this.floatMatrix = null;
+        this.shared = null;
+        this.symmetric = null;
+    }
+
+    /**
+     * Resolves this node with a sparse matrix, which stays sparse until getMatrix() is called.
+     */
+    public void resolve(SparseMatrix sparse) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.transposed = false;
+        this.sparse = sparse;
+        this.floatMatrix = null;
+        this.shared = null;
+        this.symmetric = null;
+    }
+
+    /**
+     * Resolves this node with a single-precision matrix, which is widened to double
+     * only when getMatrix() is called.
+     */
+    public void resolve(FloatMatrix floatMatrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.transposed = false;
+        this.sparse = null;
+        this.floatMatrix = floatMatrix;
+        this.shared = null;
+        this.symmetric = null;
+    }
+
+    /**
+     * Resolves this node with a matrix in engine form. The node takes ownership of it:
+     * nothing is copied until getMatrix() is called, and a consumer can take it over
+     * with takeSharedMatrix() instead of copying it again.
+     */
+    public void resolve(SharedMatrix shared) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.transposed = false;
+        this.sparse = null;
+        this.floatMatrix = null;
+        this.shared = shared;
+        this.symmetric = null;
+    }
+
+    /**
+     * Resolves this node with a packed symmetric matrix, which is expanded only when getMatrix() is called.
+     */
+    public void resolve(SymmetricMatrix symmetric) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.transposed = false;
+        this.sparse = null;
+        this.floatMatrix = null;
+        this.shared = null;
+        this.symmetric = symmetric;
+    }
+
+    public boolean isResident() {
+        return shared != null;
+    }
+
+    /**
+     * Hands the resident matrix over to the caller, who becomes its owner.
+     * The node holds no matrix afterwards: it is meant for the parent node consuming this one.
+     */
+    public SharedMatrix takeSharedMatrix() {
+        if (shared == null) {
+            throw new IllegalStateException("This node does not contain a shared matrix.");
+        }
+        SharedMatrix result = shared;
+        shared = null;
+        matrix = null;
+        return result;
+    }
+
+    public boolean isSinglePrecision() {
+        return floatMatrix != null;
+    }
+
+    public FloatMatrix getFloatMatrix() {
+        if (floatMatrix == null) {
+            throw new IllegalStateException("This node does not contain a float matrix.");
+        }
+        return floatMatrix;
+    }
+
+    public boolean isSymmetric() {
+        return symmetric != null;
+    }
+
+    public SymmetricMatrix getSymmetricMatrix() {
+        if (symmetric == null) {
+            throw new IllegalStateException("This node does not contain a symmetric matrix.");
+        }
+        return symmetric;
+    }
+
+    public boolean isSparse() {
+        return sparse != null;
+    }
+
+    public SparseMatrix getSparseMatrix() {
+        if (sparse == null) {
+            throw new IllegalStateException("This node does not contain a sparse matrix.");
+        }
+        return sparse;
     }
 
     public double[][] getMatrix() {
+        densify();
+        if (matrix == null) {
+            throw new IllegalStateException("This node does not contain a matrix.");
+        }
+        if (transposed) {
+            // first caller that needs the real layout pays for it, once
+            double[][] result = new double[matrix[0].length][matrix.length];
+            for (int i = 0; i < matrix.length; i++) {
+                for (int j = 0; j < matrix[i].length; j++) {
+                    result[j][i] = matrix[i][j];
+                }
+            }
+            matrix = result;
+            transposed = false;
+        }
+        return matrix;
+    }
+
+    /**
+     * The matrix as stored, without materializing a pending transpose.
+     * See isTransposed().
+     */
+    public double[][] getStoredMatrix() {
+        densify();
         if (matrix == null) {
             throw new IllegalStateException("This node does not contain a matrix.");
         }
         return matrix;
     }
 
+    public boolean isTransposed() {
+        return transposed;
+    }
+
+    /**
+     * Row count of a resolved node's value, read from whichever form it is held in.
+     */
+    public int rowCount() {
+        if (sparse != null) {
+            return sparse.rowCount();
+        }
+        if (floatMatrix != null) {
+            return floatMatrix.rowCount();
+        }
+        if (shared != null) {
+            return shared.rowCount();
+        }
+        if (symmetric != null) {
+            return symmetric.size();
+        }
+        if (matrix == null) {
+            throw new IllegalStateException("This node does not contain a matrix.");
+        }
+        return transposed ? (matrix.length == 0 ? 0 : matrix[0].length) : matrix.length;
+    }
+
+    public int columnCount() {
+        if (sparse != null) {
+            return sparse.columnCount();
+        }
+        if (floatMatrix != null) {
+            return floatMatrix.columnCount();
+        }
+        if (shared != null) {
+            return shared.columnCount();
+        }
+        if (symmetric != null) {
+            return symmetric.size();
+        }
+        if (matrix == null) {
+            throw new IllegalStateException("This node does not contain a matrix.");
+        }
+        return transposed ? matrix.length : (matrix.length == 0 ? 0 : matrix[0].length);
+    }
+
+    // consumers that need a dense double matrix get any other form expanded, once
+    private void densify() {
+        if (sparse != null) {
+            matrix = sparse.readRowMajor();
+            transposed = false;
+            sparse = null;
+        } else if (floatMatrix != null) {
+            matrix = floatMatrix.readRowMajor();
+            transposed = false;
+            floatMatrix = null;
+        } else if (shared != null) {
+            // the one copy out of engine form, after which the storage can be recycled
+            matrix = shared.readRowMajor();
+            transposed = false;
+            shared.release();
+            shared = null;
+        } else if (symmetric != null) {
+            matrix = symmetric.readRowMajor();
+            transposed = false;
+            symmetric = null;
+        }
+    }
+
 
 }
\ No newline at end of file
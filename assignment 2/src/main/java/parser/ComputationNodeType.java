@@ -3,6 +3,8 @@ package parser;
 /**
  * Computation nodes hold either an operation to be applied, or a matrix (2D array).
  * Matrices are always leaf nodes, while operation nodes have children.
+ * GEMM is never parsed: ComputationNode.fuseMultiplyAdd() creates it from A * B + C,
+ * with children [A, B, C] and the scalars alpha, beta of alpha * A * B + beta * C.
  */
 public enum ComputationNodeType {
     ADD,
@@ -10,4 +12,5 @@ public enum ComputationNodeType {
     NEGATE,
     TRANSPOSE,
     MATRIX,
+    GEMM,
 }
\ No newline at end of file
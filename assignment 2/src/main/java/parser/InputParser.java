@@ -3,6 +3,8 @@ package parser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import memory.MatrixStructure;
+import memory.SparseMatrix;
 
 import java.io.File;
 import java.io.IOException;
@@ -11,7 +13,23 @@ import java.util.*;
 
 public class InputParser {
 
+    // below this many elements a sparse matrix costs more than it saves
+    public static final int SPARSE_MIN_ELEMENTS = 1024;
+
     private final ObjectMapper mapper = new ObjectMapper();
+    private final double sparseThreshold;
+
+    public InputParser() {
+        this(SparseMatrix.DEFAULT_DENSITY_THRESHOLD);
+    }
+
+    /**
+     * @param sparseThreshold matrices with at most this fraction of non-zeros are stored sparse,
+     *                        a negative value keeps every matrix dense
+     */
+    public InputParser(double sparseThreshold) {
+        this.sparseThreshold = sparseThreshold;
+    }
 
     public ComputationNode parse(String inputPath) throws ParseException {
         try {
@@ -34,35 +52,70 @@ public class InputParser {
             }
             return new ComputationNode(operatorStr, operands);
         }
+        else if (jsonNode.has("matrix")) {
+            // a matrix with a declared structure: {"matrix": [[...]], "structure": "lower"}
+            double[][] matrix = parseMatrix(jsonNode.get("matrix"));
+            MatrixStructure structure;
+            try {
+                structure = jsonNode.has("structure")
+                        ? MatrixStructure.parse(jsonNode.get("structure").asText())
+                        : MatrixStructure.detect(matrix);
+            } catch (IllegalArgumentException e) {
+                throw new ParseException(e.getMessage(), 0);
+            }
+            if (!structure.admits(matrix)) {
+                throw new ParseException("Matrix does not have the declared structure " + structure + ".", 0);
+            }
+            return matrixNode(matrix, structure);
+        }
         else if (jsonNode.isArray()) {
-            if (jsonNode.size() == 0) {
-                throw new ParseException("Empty array cannot be parsed as DataNode.", 0);
+            double[][] matrix = parseMatrix(jsonNode);
+            return matrixNode(matrix, MatrixStructure.detect(matrix));
+        }
+        else { throw new ParseException("Invalid node structure: " + jsonNode.toString(), 0); }
+    }
+
+    private double[][] parseMatrix(JsonNode jsonNode) throws ParseException {
+        if (!jsonNode.isArray()) {
+            throw new ParseException("Invalid matrix: " + jsonNode.toString(), 0);
+        }
+        if (jsonNode.size() == 0) {
+            throw new ParseException("Empty array cannot be parsed as DataNode.", 0);
+        }
+        // Check if it's a vector (1D array)
+        if (jsonNode.get(0).isNumber()) {
+            throw new ParseException("Vectors (1D arrays) are not supported as standalone nodes.", 0);
+        }
+        // Otherwise, it's a matrix (2D array)
+        double[][] matrix = new double[jsonNode.size()][];
+        int width = jsonNode.get(0).size();
+        for (int i = 0; i < jsonNode.size(); i++) {
+            JsonNode rowJsonNode = jsonNode.get(i);
+            if (rowJsonNode.size() != width) {
+                throw new ParseException("Inconsistent row sizes in matrix.", 0);
             }
-            // Check if it's a vector (1D array)
-            if (jsonNode.get(0).isNumber()) {
-                throw new ParseException("Vectors (1D arrays) are not supported as standalone nodes.", 0);
+            if (!rowJsonNode.isArray()) {
+                throw new ParseException("Invalid matrix row: " + rowJsonNode.toString(), 0);
             }
-            // Otherwise, it's a matrix (2D array)
-            else {
-                double[][] matrix = new double[jsonNode.size()][];
-                int width = jsonNode.get(0).size();
-                for (int i = 0; i < jsonNode.size(); i++) {
-                    JsonNode rowJsonNode = jsonNode.get(i);
-                    if (rowJsonNode.size() != width) {
-                        throw new ParseException("Inconsistent row sizes in matrix.", 0);
-                    }
-                    if (!rowJsonNode.isArray()) {
-                        throw new ParseException("Invalid matrix row: " + rowJsonNode.toString(), 0);
-                    }
-                    matrix[i] = new double[rowJsonNode.size()];
-                    for (int j = 0; j < rowJsonNode.size(); j++) {
-                        matrix[i][j] = rowJsonNode.get(j).asDouble();
-                    }
-                }
-                return new ComputationNode(matrix);
+            matrix[i] = new double[rowJsonNode.size()];
+            for (int j = 0; j < rowJsonNode.size(); j++) {
+                matrix[i][j] = rowJsonNode.get(j).asDouble();
             }
         }
-        else { throw new ParseException("Invalid node structure: " + jsonNode.toString(), 0); }
+        return matrix;
+    }
+
+    private ComputationNode matrixNode(double[][] matrix, MatrixStructure structure) {
+        ComputationNode node;
+        int width = matrix[0].length;
+        if ((long) matrix.length * width >= SPARSE_MIN_ELEMENTS
+                && SparseMatrix.density(matrix) <= sparseThreshold) {
+            node = new ComputationNode(SparseMatrix.fromDense(matrix));
+        } else {
+            node = new ComputationNode(matrix);
+        }
+        node.setStructure(structure);
+        return node;
     }
 
 }
\ No newline at end of file
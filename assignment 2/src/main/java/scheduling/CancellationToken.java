@@ -0,0 +1,86 @@
+package scheduling;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cancellation state of a computation, shared by everyone working on it. A token is cancelled
+ * explicitly (cancel) or once its deadline passes; the reason is the first failure, or a
+ * CancellationException for a deadline.
+ *
+ * Tasks call checkpoint() at convenient points to stop early; TiredExecutor drops the queued tasks
+ * of a cancelled batch and checks between chunks of submitRange.
+ */
+public final class CancellationToken {
+
+    private final long deadline; // System.nanoTime() based, only if hasDeadline
+    private final boolean hasDeadline;
+    private final AtomicReference<RuntimeException> reason = new AtomicReference<>();
+
+    public CancellationToken() {
+        this(false, 0);
+    }
+
+    private CancellationToken(boolean hasDeadline, long deadline) {
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+    }
+
+    /**
+     * A token that cancels itself timeout from now.
+     */
+    public static CancellationToken withTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0 || unit == null) {
+            throw new IllegalArgumentException("timeout must be non-negative");
+        }
+        return new CancellationToken(true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Cancels this token with reason, unless it is cancelled already. Returns true if this call cancelled it.
+     */
+    public boolean cancel(RuntimeException reason) {
+        if (reason == null) {
+            throw new IllegalArgumentException("reason cannot be null");
+        }
+        return this.reason.compareAndSet(null, reason);
+    }
+
+    public boolean isCancelled() {
+        if (reason.get() != null) {
+            return true;
+        }
+        if (hasDeadline && System.nanoTime() - deadline >= 0) {
+            reason.compareAndSet(null, new CancellationException("Deadline exceeded"));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Why this token was cancelled, null while it is not.
+     */
+    public RuntimeException reason() {
+        return isCancelled() ? reason.get() : null;
+    }
+
+    /**
+     * Throws the reason if this token is cancelled.
+     */
+    public void checkpoint() {
+        if (isCancelled()) {
+            throw reason.get();
+        }
+    }
+
+    /**
+     * Time left until the deadline, 0 once it passed, Long.MAX_VALUE without a deadline.
+     */
+    public long remainingNanos() {
+        if (!hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, deadline - System.nanoTime());
+    }
+}
@@ -0,0 +1,91 @@
+package scheduling;
+
+/**
+ * Sizing rules of an elastic TiredExecutor pool, which keeps between minWorkers and maxWorkers workers:
+ * it starts another worker when a task finds every worker busy while the recent queue wait is above
+ * targetQueueWaitNanos, or while more async tasks are pending than there are workers; it retires a
+ * worker that stayed idle for idleTimeoutNanos; and it replaces a worker whose measured throughput is
+ * lagRatio times below the rest of the pool's (over at least MIN_LAG_SAMPLES ranged chunks) with a fresh one.
+ *
+ * The engine reads the pool from -Dlae.minThreads and -Dlae.maxThreads, see configured().
+ */
+public final class ElasticPolicy {
+
+    public static final long DEFAULT_TARGET_QUEUE_WAIT_NANOS = 1_000_000; // 1ms
+    public static final long DEFAULT_IDLE_TIMEOUT_NANOS = 5_000_000_000L; // 5s
+    public static final double DEFAULT_LAG_RATIO = 2.0;
+    public static final int MIN_LAG_SAMPLES = 32;
+
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final long targetQueueWaitNanos;
+    private final long idleTimeoutNanos;
+    private final double lagRatio;
+
+    public ElasticPolicy(int minWorkers, int maxWorkers) {
+        this(minWorkers, maxWorkers, DEFAULT_TARGET_QUEUE_WAIT_NANOS, DEFAULT_IDLE_TIMEOUT_NANOS, DEFAULT_LAG_RATIO);
+    }
+
+    public ElasticPolicy(int minWorkers, int maxWorkers, long targetQueueWaitNanos, long idleTimeoutNanos,
+                         double lagRatio) {
+        if (minWorkers <= 0 || maxWorkers < minWorkers) {
+            throw new IllegalArgumentException("worker bounds must satisfy 0 < minWorkers <= maxWorkers");
+        }
+        if (targetQueueWaitNanos < 0 || idleTimeoutNanos <= 0) {
+            throw new IllegalArgumentException("queue wait target and idle timeout must be positive");
+        }
+        if (!(lagRatio > 1)) {
+            throw new IllegalArgumentException("lagRatio must be greater than 1");
+        }
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+        this.targetQueueWaitNanos = targetQueueWaitNanos;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        this.lagRatio = lagRatio;
+    }
+
+    /**
+     * The pool set by -Dlae.maxThreads (and -Dlae.minThreads, default 1), or null for a fixed pool
+     * when lae.maxThreads is not set.
+     */
+    public static ElasticPolicy configured() {
+        Integer max = Integer.getInteger("lae.maxThreads");
+        if (max == null) {
+            return null;
+        }
+        int min = Integer.getInteger("lae.minThreads", 1);
+        return new ElasticPolicy(min, Math.max(min, max));
+    }
+
+    public int minWorkers() {
+        return minWorkers;
+    }
+
+    public int maxWorkers() {
+        return maxWorkers;
+    }
+
+    public long targetQueueWaitNanos() {
+        return targetQueueWaitNanos;
+    }
+
+    public long idleTimeoutNanos() {
+        return idleTimeoutNanos;
+    }
+
+    public double lagRatio() {
+        return lagRatio;
+    }
+
+    /**
+     * numThreads moved into [minWorkers, maxWorkers].
+     */
+    public int clamp(int numThreads) {
+        return Math.max(minWorkers, Math.min(maxWorkers, numThreads));
+    }
+
+    @Override
+    public String toString() {
+        return "min=" + minWorkers + " max=" + maxWorkers;
+    }
+}
@@ -0,0 +1,183 @@
+package scheduling;
+
+import java.util.List;
+
+/**
+ * Point-in-time snapshot of a TiredExecutor's scheduling metrics, see TiredExecutor.getMetrics().
+ * Durations are in nanoseconds. Queue wait is the time from submission until a worker starts the task,
+ * run time the time the task itself takes. A batch (submitAll, submitAllAsync) has a makespan, from
+ * submission until its last task finished, and an ideal makespan, its total run time spread evenly
+ * over all workers; their ratio is the batch efficiency.
+ */
+public final class ExecutorMetrics {
+
+    /** Counters of a single worker. */
+    public static final class WorkerMetrics {
+        private final int id;
+        private final long tasks;
+        private final long timeUsed;
+        private final long timeIdle;
+        private final double fatigue;
+        private final long handoffs;
+        private final long averageHandoff;
+        private final double throughput;
+
+        WorkerMetrics(TiredThread worker) {
+            this.id = worker.getWorkerId();
+            this.tasks = worker.getTasksCompleted();
+            this.timeUsed = worker.getTimeUsed();
+            this.timeIdle = worker.getTimeIdle();
+            this.fatigue = worker.getFatigue();
+            this.handoffs = worker.getHandoffCount();
+            this.averageHandoff = worker.getAverageHandoffNanos();
+            this.throughput = worker.getThroughput();
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public long getTasks() {
+            return tasks;
+        }
+
+        public long getTimeUsed() {
+            return timeUsed;
+        }
+
+        public long getTimeIdle() {
+            return timeIdle;
+        }
+
+        public double getIdleRatio() {
+            long total = timeUsed + timeIdle;
+            return total == 0 ? 1 : (double) timeIdle / total;
+        }
+
+        public double getFatigue() {
+            return fatigue;
+        }
+
+        public long getHandoffs() {
+            return handoffs;
+        }
+
+        public long getAverageHandoff() {
+            return averageHandoff;
+        }
+
+        /** Measured work units per ns, see TiredThread.getThroughput(). */
+        public double getThroughput() {
+            return throughput;
+        }
+    }
+
+    private final List<WorkerMetrics> workers;
+    private final long tasksCompleted;
+    private final long queueWaitP50;
+    private final long queueWaitP99;
+    private final long queueWaitMax;
+    private final long runTimeP50;
+    private final long runTimeP99;
+    private final long runTimeMax;
+    private final long batches;
+    private final long lastBatchMakespan;
+    private final long lastBatchIdeal;
+    private final long totalMakespan;
+    private final long totalIdeal;
+
+    ExecutorMetrics(List<WorkerMetrics> workers, LatencyHistogram queueWait, LatencyHistogram runTime,
+                    long batches, long lastBatchMakespan, long lastBatchIdeal, long totalMakespan, long totalIdeal) {
+        this.workers = List.copyOf(workers);
+        this.tasksCompleted = runTime.count();
+        this.queueWaitP50 = queueWait.percentile(50);
+        this.queueWaitP99 = queueWait.percentile(99);
+        this.queueWaitMax = queueWait.max();
+        this.runTimeP50 = runTime.percentile(50);
+        this.runTimeP99 = runTime.percentile(99);
+        this.runTimeMax = runTime.max();
+        this.batches = batches;
+        this.lastBatchMakespan = lastBatchMakespan;
+        this.lastBatchIdeal = lastBatchIdeal;
+        this.totalMakespan = totalMakespan;
+        this.totalIdeal = totalIdeal;
+    }
+
+    public List<WorkerMetrics> getWorkers() {
+        return workers;
+    }
+
+    public long getTasksCompleted() {
+        return tasksCompleted;
+    }
+
+    public long getQueueWaitP50() {
+        return queueWaitP50;
+    }
+
+    public long getQueueWaitP99() {
+        return queueWaitP99;
+    }
+
+    public long getQueueWaitMax() {
+        return queueWaitMax;
+    }
+
+    public long getRunTimeP50() {
+        return runTimeP50;
+    }
+
+    public long getRunTimeP99() {
+        return runTimeP99;
+    }
+
+    public long getRunTimeMax() {
+        return runTimeMax;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getLastBatchMakespan() {
+        return lastBatchMakespan;
+    }
+
+    public long getLastBatchIdeal() {
+        return lastBatchIdeal;
+    }
+
+    /**
+     * Ideal over actual makespan of all batches so far: 1 means every worker was busy for the whole
+     * of every batch, 1 / workers that a batch effectively ran on one worker.
+     */
+    public double getBatchEfficiency() {
+        return totalMakespan == 0 ? 1 : Math.min(1, (double) totalIdeal / totalMakespan);
+    }
+
+    /**
+     * Idle time over total time, across all workers.
+     */
+    public double getIdleRatio() {
+        long used = 0;
+        long idle = 0;
+        for (WorkerMetrics w : workers) {
+            used += w.timeUsed;
+            idle += w.timeIdle;
+        }
+        return used + idle == 0 ? 1 : (double) idle / (used + idle);
+    }
+
+    /**
+     * Average handoff latency across all workers' handoffs.
+     */
+    public long getAverageHandoff() {
+        long count = 0;
+        long total = 0;
+        for (WorkerMetrics w : workers) {
+            count += w.handoffs;
+            total += w.handoffs * w.averageHandoff;
+        }
+        return count == 0 ? 0 : total / count;
+    }
+}
@@ -0,0 +1,40 @@
+package scheduling;
+
+/**
+ * JMX view of a TiredExecutor's metrics (see ExecutorMetrics), registered with
+ * TiredExecutor.registerMBean(). Every attribute is read live from the executor.
+ */
+public interface ExecutorMetricsMXBean {
+
+    String getMode();
+
+    int getWorkers();
+
+    long getTasksCompleted();
+
+    long[] getTasksPerWorker();
+
+    long getQueueWaitP50Nanos();
+
+    long getQueueWaitP99Nanos();
+
+    long getQueueWaitMaxNanos();
+
+    long getRunTimeP50Nanos();
+
+    long getRunTimeP99Nanos();
+
+    long getRunTimeMaxNanos();
+
+    long getBatches();
+
+    long getLastBatchMakespanNanos();
+
+    long getLastBatchIdealNanos();
+
+    double getBatchEfficiency();
+
+    double getIdleRatio();
+
+    long getAverageHandoffNanos();
+}
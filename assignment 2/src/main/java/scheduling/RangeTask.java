@@ -0,0 +1,9 @@
+package scheduling;
+
+/**
+ * Work over a range [from, to) of independent units, see TiredExecutor.submitRange.
+ */
+@FunctionalInterface
+public interface RangeTask {
+    void run(int from, int to);
+}
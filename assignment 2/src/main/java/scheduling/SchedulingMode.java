@@ -0,0 +1,27 @@
+package scheduling;
+
+/**
+ * How a TiredExecutor hands tasks to its workers.
+ * HANDOFF gives each task to the least tired idle worker through its single-slot queue, and blocks
+ * the submitter until a worker is idle.
+ * WORK_STEALING queues tasks on per-worker deques without blocking the submitter; a worker runs its
+ * own deque first and steals from the other end of its peers' deques when it runs dry.
+ * The engine picks the mode from -Dlae.scheduler=handoff|stealing (HANDOFF by default).
+ */
+public enum SchedulingMode {
+    HANDOFF,
+    WORK_STEALING;
+
+    public static SchedulingMode configured() {
+        String value = System.getProperty("lae.scheduler", "handoff").trim().toLowerCase();
+        switch (value) {
+            case "handoff":
+                return HANDOFF;
+            case "stealing":
+            case "work_stealing":
+                return WORK_STEALING;
+            default:
+                throw new IllegalArgumentException("Unknown scheduler: " + value);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package scheduling;
+
+/**
+ * A task split into a side-effect free compute step, which may run more than once (even concurrently),
+ * and a commit step, which runs exactly once with the result of the attempt that finished first.
+ * See TiredExecutor.submitSpeculative.
+ */
+public interface SpeculativeTask<T> {
+
+    /**
+     * Computes the result into private buffers, without touching any shared output.
+     */
+    T compute();
+
+    /**
+     * Publishes result to the shared output.
+     */
+    void commit(T result);
+}
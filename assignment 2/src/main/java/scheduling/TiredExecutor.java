@@ -1,131 +1,1338 @@
 package scheduling;
 
-import java.util.concurrent.PriorityBlockingQueue;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CancellationException;
+import java.util.function.Predicate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public class TiredExecutor {
 
-    private final TiredThread[] workers;
-    private final PriorityBlockingQueue<TiredThread> idleMinHeap = new PriorityBlockingQueue<>();
+    public static final int DEFAULT_BACKLOG_CAPACITY = 1 << 16;
+    private static final int IDLE_SAMPLES = 2; // "least tired of k" sample size
+    // speculative batches: stragglers are duplicated once this share of the batch has committed,
+    // if they have been running SPECULATE_FACTOR times the median task time
+    static final double SPECULATE_AFTER = 0.75;
+    static final int SPECULATE_FACTOR = 3;
+    // waits on behalf of a cancellable batch look at its token at least this often
+    private static final long CANCEL_POLL_MILLIS = 10;
+
+    // worker slots, a worker's id is its slot; in an elastic pool a slot is null while vacant
+    private final AtomicReferenceArray<TiredThread> workers;
+    private final TiredThread[] peers; // WORK_STEALING only: the fixed set of workers
+    private final AtomicInteger liveWorkers = new AtomicInteger(0);
+    private final WaitStrategy waitStrategy;
+    // HANDOFF idle workers: idle.get(i) == 1 while worker i waits for a task, claimed with a CAS
+    private final AtomicIntegerArray idle;
+    private final AtomicInteger idleCount = new AtomicInteger(0);
+    private final AtomicInteger waitingSubmitters = new AtomicInteger(0);
+    // only taken to wait: for an idle worker, or for the tasks in flight to complete
+    private final Object monitor = new Object();
     private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final SchedulingMode mode;
+    private final AtomicInteger nextWorker = new AtomicInteger(0); // round robin for WORK_STEALING
+
+    // async tasks waiting for an idle worker (HANDOFF), and all async tasks not finished yet (both modes)
+    private final ConcurrentLinkedQueue<Runnable> backlog = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingAsync = new AtomicInteger(0);
+    private final int backlogCapacity;
+
+    // metrics, see getMetrics()
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram runTime = new LatencyHistogram();
+    private final AtomicLong batches = new AtomicLong(0);
+    private final AtomicLong lastBatchMakespan = new AtomicLong(0);
+    private final AtomicLong lastBatchIdeal = new AtomicLong(0);
+    private final AtomicLong totalMakespan = new AtomicLong(0);
+    private final AtomicLong totalIdeal = new AtomicLong(0);
+    private ObjectName mbeanName = null;
+
+    // elastic pool, see ElasticPolicy; null for a fixed pool
+    private final ElasticPolicy elastic;
+    private final Thread maintainer; // retires idle and lagging workers
+    private final Object poolLock = new Object(); // taken to start or retire a worker
+    private boolean stopping = false; // guarded by poolLock
+    private final AtomicLong recentQueueWait = new AtomicLong(0); // moving average, elastic pools only
+    private final AtomicLong workersStarted = new AtomicLong(0);
+    private final AtomicLong workersRetired = new AtomicLong(0);
+    private final AtomicLong workersRotated = new AtomicLong(0);
+
+    private final AtomicLong speculativeLaunches = new AtomicLong(0);
+    private final AtomicLong speculativeWins = new AtomicLong(0); // duplicates that committed first
 
     public TiredExecutor(int numThreads) {
+        this(numThreads, SchedulingMode.HANDOFF);
+    }
+
+    public TiredExecutor(int numThreads, SchedulingMode mode) {
+        this(numThreads, mode, DEFAULT_BACKLOG_CAPACITY);
+    }
+
+    public TiredExecutor(int numThreads, SchedulingMode mode, int backlogCapacity) {
+        this(numThreads, mode, backlogCapacity, WaitStrategy.PARK);
+    }
+
+    public TiredExecutor(int numThreads, SchedulingMode mode, int backlogCapacity, WaitStrategy waitStrategy) {
+        this(numThreads, mode, backlogCapacity, waitStrategy, null);
+    }
+
+    /**
+     * @param numThreads initial number of workers, within the bounds of elastic if it is set
+     * @param elastic    lets the pool grow and shrink (HANDOFF mode only), null for a fixed pool
+     */
+    public TiredExecutor(int numThreads, SchedulingMode mode, int backlogCapacity, WaitStrategy waitStrategy,
+                         ElasticPolicy elastic) {
         if (numThreads <= 0) {
             throw new IllegalArgumentException("numThreads must be positive");
         }
+        if (mode == null) {
+            throw new IllegalArgumentException("mode cannot be null");
+        }
+        if (backlogCapacity <= 0) {
+            throw new IllegalArgumentException("backlogCapacity must be positive");
+        }
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException("waitStrategy cannot be null");
+        }
+        if (elastic != null) {
+            if (mode != SchedulingMode.HANDOFF) {
+                throw new IllegalArgumentException("an elastic pool requires HANDOFF scheduling");
+            }
+            if (numThreads < elastic.minWorkers() || numThreads > elastic.maxWorkers()) {
+                throw new IllegalArgumentException("numThreads must be within the elastic pool bounds");
+            }
+        }
+        this.mode = mode;
+        this.backlogCapacity = backlogCapacity;
+        this.waitStrategy = waitStrategy;
+        this.elastic = elastic;
 
-        workers = new TiredThread[numThreads];
+        int slots = elastic == null ? numThreads : elastic.maxWorkers();
+        workers = new AtomicReferenceArray<>(slots);
+        idle = new AtomicIntegerArray(slots);
 
+        TiredThread[] initial = new TiredThread[numThreads];
         for (int i = 0; i < numThreads; i++) {
-            double fatigue = 0.5 + Math.random();
+            initial[i] = newWorker(i);
+            workers.set(i, initial[i]);
+            idle.set(i, 1);
+        }
+        idleCount.set(numThreads);
+        liveWorkers.set(numThreads);
+        if (mode == SchedulingMode.WORK_STEALING) {
+            peers = initial;
+            for (TiredThread worker : initial) {
+                worker.joinPeers(initial);
+            }
+        } else {
+            peers = null;
+        }
 
-            workers[i] = new TiredThread(i, fatigue);
-            idleMinHeap.add(workers[i]);
+        for (TiredThread worker : initial) {
+            worker.start();
         }
+        workersStarted.set(numThreads);
 
-        for (int i = 0; i < numThreads; i++) {
-            workers[i].start();
+        if (elastic != null) {
+            maintainer = new Thread(this::maintain, "TiredExecutor-maintainer");
+            maintainer.setDaemon(true);
+            maintainer.start();
+        } else {
+            maintainer = null;
         }
     }
 
+    private TiredThread newWorker(int slot) {
+        double fatigue = 0.5 + Math.random();
+        return new TiredThread(slot, fatigue, waitStrategy);
+    }
+
     public void submit(Runnable task) {
         if (task == null) {
             throw new IllegalArgumentException("task cannot be null");
         }
+        submitTask(instrument(task, null), null);
+    }
 
-        TiredThread worker;
+    // times the queue wait and the run of task, adding the run time to batchRun if it is part of a batch
+    private Runnable instrument(Runnable task, LongAdder batchRun) {
+        return instrument(task, batchRun, true);
+    }
 
-        synchronized (idleMinHeap) {
-            // wait until there is free worker
-            while (idleMinHeap.isEmpty()) {
-                try {
-                    idleMinHeap.wait();
-                } catch (InterruptedException ex) {
-                    Thread.currentThread().interrupt();
-                    return;
+    // like instrument(task, batchRun), leaving the run time to task itself unless timeRun is set
+    private Runnable instrument(Runnable task, LongAdder batchRun, boolean timeRun) {
+        long submitted = System.nanoTime();
+        return () -> {
+            long start = System.nanoTime();
+            queueWait.record(start - submitted);
+            if (elastic != null) {
+                long wait = start - submitted;
+                recentQueueWait.accumulateAndGet(wait, (avg, w) -> avg + (w - avg) / 8);
+            }
+            if (!timeRun) {
+                task.run();
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                recordRun(System.nanoTime() - start, batchRun);
+            }
+        };
+    }
+
+    private void recordRun(long elapsed, LongAdder batchRun) {
+        runTime.record(elapsed);
+        if (batchRun != null) {
+            batchRun.add(elapsed);
+        }
+    }
+
+    private void recordBatch(long makespan, long totalRun) {
+        long ideal = totalRun / Math.max(1, liveWorkers.get());
+        batches.incrementAndGet();
+        lastBatchMakespan.set(makespan);
+        lastBatchIdeal.set(ideal);
+        totalMakespan.addAndGet(makespan);
+        totalIdeal.addAndGet(ideal);
+    }
+
+    // false if the task was not submitted: token was cancelled while waiting for a worker, or the caller interrupted
+    private boolean submitTask(Runnable task, CancellationToken token) {
+        if (mode == SchedulingMode.WORK_STEALING) {
+            submitStealing(task);
+            return true;
+        }
+        if (isOwnWorker(Thread.currentThread())) {
+            // a nested batch never waits for a worker: every worker may be waiting on one of its own
+            if (!submitIfIdle(task) && !(tryGrow() && submitIfIdle(task))) {
+                task.run();
+            }
+            return true;
+        }
+
+        TiredThread worker = claimIdle();
+        if (worker == null && tryGrow()) {
+            worker = claimIdle();
+        }
+        if (worker == null) {
+            // slow path: every worker is busy
+            waitingSubmitters.incrementAndGet();
+            try {
+                synchronized (monitor) {
+                    while ((worker = claimIdle()) == null) {
+                        if (token != null && token.isCancelled()) {
+                            return false;
+                        }
+                        monitor.wait(pollMillis(token));
+                    }
                 }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waitingSubmitters.decrementAndGet();
             }
+        }
+        inFlight.incrementAndGet();
+        assign(worker, task);
+        return true;
+    }
 
-            // take worker with least fatigue
-            worker = idleMinHeap.poll();
-            inFlight.incrementAndGet();
+    private boolean isOwnWorker(Thread thread) {
+        if (!(thread instanceof TiredThread)) {
+            return false;
         }
-        final TiredThread assignedWorker = worker;
+        int slot = ((TiredThread) thread).getWorkerId();
+        return slot >= 0 && slot < workers.length() && workers.get(slot) == thread;
+    }
+
+    // the calling worker, if it is one of this executor's work-stealing workers: waiting on a batch it
+    // submitted, it runs queued tasks meanwhile, as a task queued behind it could hold the batch up
+    private TiredThread helpingWorker() {
+        Thread current = Thread.currentThread();
+        return mode == SchedulingMode.WORK_STEALING && isOwnWorker(current) ? (TiredThread) current : null;
+    }
 
+    // runs one queued task on helper, false if there was none
+    private static boolean helpOnce(TiredThread helper) {
+        Runnable queued = helper.pollTask();
+        if (queued == null) {
+            return false;
+        }
+        try {
+            queued.run();
+        } catch (RuntimeException ex) {
+            helper.getUncaughtExceptionHandler().uncaughtException(helper, ex);
+        }
+        return true;
+    }
+
+    // how long to wait on the monitor before looking at token again, 0 for no limit
+    private static long pollMillis(CancellationToken token) {
+        if (token == null) {
+            return 0;
+        }
+        long remaining = TimeUnit.NANOSECONDS.toMillis(token.remainingNanos()) + 1;
+        return Math.max(1, Math.min(CANCEL_POLL_MILLIS, remaining));
+    }
+
+    // runs task on worker, which was claimed idle and counted in flight
+    private void assign(TiredThread worker, Runnable task) {
         try {
             // give task to worker
-            assignedWorker.newTask(() -> {
+            worker.newTask(() -> {
                 try {
                     task.run();
                 } finally {
                     // task finished, return worker back
-                    synchronized (idleMinHeap) {
-                        inFlight.decrementAndGet();
-                        idleMinHeap.add(assignedWorker);
-                        idleMinHeap.notifyAll(); // wake waiting threads
-                    }
+                    releaseIdle(worker);
+                    taskDone();
+                    dispatch();
                 }
             });
         } catch (RuntimeException ex) {
-            // something failed, fix counters and heap
-            synchronized (idleMinHeap) {
-                inFlight.decrementAndGet();
-                idleMinHeap.add(assignedWorker);
-                idleMinHeap.notifyAll();
-            }
+            // something failed, fix counters and idle state
+            releaseIdle(worker);
+            taskDone();
             throw ex;
         }
     }
 
+    /**
+     * Claims an idle worker without locking, or returns null if none is idle.
+     * Samples a few workers and takes the least tired idle one among them (all of them in small pools),
+     * so the least-fatigue policy holds approximately at O(1) cost; when the sample has no idle
+     * worker the first idle one from a random start is taken.
+     */
+    private TiredThread claimIdle() {
+        if (idleCount.get() == 0) {
+            return null;
+        }
+        int n = workers.length();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int samples = n <= IDLE_SAMPLES * 2 ? n : IDLE_SAMPLES;
+        int start = random.nextInt(n);
+        int best = -1;
+        double bestFatigue = 0;
+        for (int s = 0; s < samples; s++) {
+            int i = samples == n ? (start + s) % n : random.nextInt(n);
+            TiredThread worker = workers.get(i);
+            if (idle.get(i) == 1 && worker != null) {
+                double fatigue = worker.getFatigue();
+                if (best < 0 || fatigue < bestFatigue) {
+                    best = i;
+                    bestFatigue = fatigue;
+                }
+            }
+        }
+        if (best >= 0 && idle.compareAndSet(best, 1, 0)) {
+            idleCount.decrementAndGet();
+            return workers.get(best);
+        }
+        for (int k = 0; k < n; k++) {
+            int i = (start + k) % n;
+            if (idle.compareAndSet(i, 1, 0)) {
+                idleCount.decrementAndGet();
+                return workers.get(i);
+            }
+        }
+        return null;
+    }
+
+    private void releaseIdle(TiredThread worker) {
+        idle.set(worker.getWorkerId(), 1);
+        idleCount.incrementAndGet();
+        // the flag is set before the count of waiters is read, see submit
+        if (waitingSubmitters.get() > 0) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    // one task in flight less, wakes submitAll / shutdown once there are none left
+    private void taskDone() {
+        if (inFlight.decrementAndGet() == 0) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    // hands backlogged async tasks to idle workers, until either runs out
+    private void dispatch() {
+        while (!backlog.isEmpty()) {
+            TiredThread worker = claimIdle();
+            if (worker == null && tryGrow()) {
+                worker = claimIdle();
+            }
+            if (worker == null) {
+                // whoever releases a worker next dispatches
+                return;
+            }
+            Runnable next = backlog.poll();
+            if (next == null) {
+                // raced with another dispatcher; the loop re-checks after the release,
+                // so a task queued meanwhile is not stranded
+                releaseIdle(worker);
+                continue;
+            }
+            inFlight.incrementAndGet();
+            assign(worker, next);
+        }
+    }
+
+    /**
+     * Queues a task without waiting for a worker. The future completes when the task has run,
+     * exceptionally if it threw. Once the backlog holds backlogCapacity unfinished async tasks,
+     * further tasks run on the calling thread instead, which keeps the backlog bounded without
+     * ever parking the submitter.
+     */
+    public CompletableFuture<Void> submitAsync(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("task cannot be null");
+        }
+        Batch batch = new Batch(1, false, new CancellationToken());
+        enqueue(task, batch);
+        return batch.future;
+    }
+
+    /**
+     * Queues all tasks (see submitAsync). The future completes when every task has run,
+     * exceptionally with the first failure if any task threw.
+     */
+    public CompletableFuture<Void> submitAllAsync(Iterable<Runnable> tasks) {
+        return submitAllAsync(tasks, new CancellationToken());
+    }
+
+    /**
+     * Like submitAllAsync(tasks), failing fast: the first failure cancels token, and once token is
+     * cancelled (by a failure, explicitly or by its deadline) the tasks not started yet are dropped,
+     * so the future fails as soon as the running ones are done.
+     */
+    public CompletableFuture<Void> submitAllAsync(Iterable<Runnable> tasks, CancellationToken token) {
+        if (tasks == null) {
+            throw new IllegalArgumentException("tasks cannot be null");
+        }
+        if (token == null) {
+            throw new IllegalArgumentException("token cannot be null");
+        }
+        List<Runnable> list = new ArrayList<>();
+        for (Runnable r : tasks) {
+            if (r == null) {
+                throw new IllegalArgumentException("task cannot be null");
+            }
+            list.add(r);
+        }
+        if (list.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Batch batch = new Batch(list.size(), true, token);
+        for (Runnable r : list) {
+            enqueue(r, batch);
+        }
+        return batch.future;
+    }
+
+    /**
+     * Queues tasks once dependency has completed normally, without blocking anyone in between:
+     * the tasks are submitted from whichever thread completes dependency. If dependency fails,
+     * the tasks are skipped and the returned future fails the same way.
+     */
+    public CompletableFuture<Void> runAfter(CompletableFuture<?> dependency, Iterable<Runnable> tasks) {
+        return runAfter(dependency, tasks, new CancellationToken());
+    }
+
+    /**
+     * Like runAfter(dependency, tasks), failing fast on token as submitAllAsync(tasks, token) does.
+     */
+    public CompletableFuture<Void> runAfter(CompletableFuture<?> dependency, Iterable<Runnable> tasks,
+                                            CancellationToken token) {
+        if (dependency == null) {
+            throw new IllegalArgumentException("dependency cannot be null");
+        }
+        if (token == null) {
+            throw new IllegalArgumentException("token cannot be null");
+        }
+        return dependency.thenCompose(ignored -> submitAllAsync(tasks, token));
+    }
+
+    private void enqueue(Runnable task, Batch batch) {
+        Runnable timed = instrument(task, batch.runNanos);
+        Runnable job = () -> {
+            Throwable failure = null;
+            if (batch.token.isCancelled()) {
+                // dropped
+                failure = batch.token.reason();
+            } else {
+                try {
+                    timed.run();
+                } catch (Throwable ex) {
+                    failure = ex;
+                }
+            }
+            pendingAsync.decrementAndGet();
+            batch.taskDone(failure);
+        };
+        if (pendingAsync.incrementAndGet() > backlogCapacity) {
+            // backlog full: the submitter does the work itself
+            job.run();
+            return;
+        }
+        if (mode == SchedulingMode.WORK_STEALING) {
+            submitStealing(job);
+        } else {
+            backlog.add(job);
+            dispatch();
+        }
+    }
+
+    // completion of a group of async tasks
+    private final class Batch {
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final AtomicInteger remaining;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final LongAdder runNanos = new LongAdder();
+        private final long submitted = System.nanoTime();
+        private final boolean recorded; // counted in the batch metrics
+        private final CancellationToken token;
+
+        Batch(int size, boolean recorded, CancellationToken token) {
+            remaining = new AtomicInteger(size);
+            this.recorded = recorded;
+            this.token = token;
+        }
+
+        void taskDone(Throwable ex) {
+            if (ex != null) {
+                failure.compareAndSet(null, ex);
+                if (ex instanceof RuntimeException) {
+                    token.cancel((RuntimeException) ex);
+                }
+            }
+            if (remaining.decrementAndGet() == 0) {
+                if (recorded) {
+                    recordBatch(System.nanoTime() - submitted, runNanos.sum());
+                }
+                Throwable first = failure.get();
+                if (first != null) {
+                    future.completeExceptionally(first);
+                } else {
+                    future.complete(null);
+                }
+            }
+        }
+    }
+
+    // no shared lock on this path: the monitor is only taken when the last task in flight completes
+    private void submitStealing(Runnable task) {
+        inFlight.incrementAndGet();
+        TiredThread target = pickWorker();
+        target.push(() -> {
+            try {
+                task.run();
+            } finally {
+                taskDone();
+            }
+        });
+        // the task is visible before the flags are read, see TiredThread.runStealing
+        if (target.isWaiting()) {
+            target.wake();
+            return;
+        }
+        for (TiredThread worker : peers) {
+            if (worker.isWaiting()) {
+                worker.wake();
+                return;
+            }
+        }
+    }
+
+    // the least tired waiting worker, or the next one in turn when all are busy
+    private TiredThread pickWorker() {
+        TiredThread best = null;
+        for (TiredThread worker : peers) {
+            if (worker.isWaiting() && (best == null || worker.getFatigue() < best.getFatigue())) {
+                best = worker;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        return peers[Math.floorMod(nextWorker.getAndIncrement(), peers.length)];
+    }
+
+    /**
+     * Starts another worker if the pool is elastic, below its maximum, and tasks queue up:
+     * the recent queue wait is above target, or more async tasks are pending than there are workers.
+     * The new worker is idle when this returns true.
+     */
+    private boolean tryGrow() {
+        if (elastic == null || liveWorkers.get() >= elastic.maxWorkers()) {
+            return false;
+        }
+        if (recentQueueWait.get() <= elastic.targetQueueWaitNanos() && pendingAsync.get() <= liveWorkers.get()) {
+            return false;
+        }
+        TiredThread worker = null;
+        synchronized (poolLock) {
+            if (stopping || liveWorkers.get() >= elastic.maxWorkers()) {
+                return false;
+            }
+            for (int i = 0; i < workers.length() && worker == null; i++) {
+                if (workers.get(i) == null) {
+                    worker = newWorker(i);
+                    workers.set(i, worker);
+                }
+            }
+            if (worker == null) {
+                return false;
+            }
+            liveWorkers.incrementAndGet();
+            workersStarted.incrementAndGet();
+            worker.start();
+        }
+        releaseIdle(worker);
+        return true;
+    }
+
+    // elastic pools: periodically retires workers that idled too long, and replaces lagging ones
+    private void maintain() {
+        long interval = Math.max(1_000_000, elastic.idleTimeoutNanos() / 4);
+        try {
+            while (true) {
+                TimeUnit.NANOSECONDS.sleep(interval);
+                retireIdle();
+                rotateLaggards();
+            }
+        } catch (InterruptedException ex) {
+            // shutdown
+        }
+    }
+
+    private void retireIdle() throws InterruptedException {
+        for (int i = 0; i < workers.length(); i++) {
+            TiredThread worker = workers.get(i);
+            if (worker == null || liveWorkers.get() <= elastic.minWorkers()
+                    || worker.getIdleNanos() < elastic.idleTimeoutNanos()) {
+                continue;
+            }
+            // claimed like a task would, so nobody hands it one in the meantime
+            if (idle.compareAndSet(i, 1, 0)) {
+                idleCount.decrementAndGet();
+                synchronized (poolLock) {
+                    workers.set(i, null);
+                    liveWorkers.decrementAndGet();
+                }
+                worker.shutdown();
+                worker.join();
+                workersRetired.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Replaces every idle worker among laggards() with a fresh worker in the same slot.
+     */
+    private void rotateLaggards() throws InterruptedException {
+        for (TiredThread worker : laggards()) {
+            int i = worker.getWorkerId();
+            if (workers.get(i) == worker && idle.compareAndSet(i, 1, 0)) {
+                idleCount.decrementAndGet();
+                worker.shutdown();
+                worker.join();
+                TiredThread fresh = newWorker(i);
+                synchronized (poolLock) {
+                    workers.set(i, fresh);
+                    fresh.start();
+                }
+                workersStarted.incrementAndGet();
+                workersRotated.incrementAndGet();
+                releaseIdle(fresh);
+            }
+        }
+    }
+
+    /**
+     * The workers whose measured throughput (see TiredThread.getThroughput()) is lagRatio times below the
+     * average of the other measured workers, or further, each over at least MIN_LAG_SAMPLES ranged chunks.
+     * Throughput is work per ns, so a worker that happened to get the large tasks does not lag for it.
+     */
+    List<TiredThread> laggards() {
+        List<TiredThread> measured = new ArrayList<>();
+        double total = 0;
+        for (TiredThread worker : liveWorkerList()) {
+            if (worker.getWorkSamples() >= ElasticPolicy.MIN_LAG_SAMPLES && worker.getThroughput() > 0) {
+                measured.add(worker);
+                total += worker.getThroughput();
+            }
+        }
+        List<TiredThread> lagging = new ArrayList<>();
+        if (measured.size() < 2) {
+            return lagging;
+        }
+        for (TiredThread worker : measured) {
+            double others = (total - worker.getThroughput()) / (measured.size() - 1);
+            if (worker.getThroughput() * elastic.lagRatio() <= others) {
+                lagging.add(worker);
+            }
+        }
+        return lagging;
+    }
+
+    // the workers currently in the pool
+    private List<TiredThread> liveWorkerList() {
+        List<TiredThread> live = new ArrayList<>();
+        for (int i = 0; i < workers.length(); i++) {
+            TiredThread worker = workers.get(i);
+            if (worker != null) {
+                live.add(worker);
+            }
+        }
+        return live;
+    }
+
+    public int getWorkerCount() {
+        return liveWorkers.get();
+    }
+
+    public ElasticPolicy getElasticPolicy() {
+        return elastic;
+    }
+
+    public SchedulingMode getMode() {
+        return mode;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
     public void submitAll(Iterable<Runnable> tasks) {
+        submitAll(tasks, new CancellationToken());
+    }
+
+    /**
+     * Runs tasks and waits for them, failing fast: the first task to throw cancels token, and once
+     * token is cancelled (by a failure, explicitly or by its deadline) the tasks not started yet are
+     * dropped and running ones stop at their next checkpoint (see CancellationToken). Then the reason
+     * is rethrown. Failures never reach the workers, which keep running. Called from one of this
+     * executor's own workers, it never waits for a free worker: the tasks go to idle workers or run on
+     * the caller, and a work-stealing caller runs queued tasks while it waits.
+     */
+    public void submitAll(Iterable<Runnable> tasks, CancellationToken token) {
+        submitAll(tasks, token, new LongAdder(), true);
+    }
+
+    // submitAll(tasks, token), adding the run times to batchRun; timeRuns is off for tasks that time their own parts
+    private void submitAll(Iterable<Runnable> tasks, CancellationToken token, LongAdder batchRun, boolean timeRuns) {
         if (tasks == null) {
             throw new IllegalArgumentException("tasks cannot be null");
         }
+        if (token == null) {
+            throw new IllegalArgumentException("token cannot be null");
+        }
+
+        long start = System.nanoTime();
+        // tasks of this batch not finished yet, plus one until all are submitted
+        AtomicInteger remaining = new AtomicInteger(1);
 
         // push everything to the executor
         for (Runnable r : tasks) {
-            submit(r);
+            if (r == null) {
+                throw new IllegalArgumentException("task cannot be null");
+            }
+            if (token.isCancelled()) {
+                break;
+            }
+            remaining.incrementAndGet();
+            if (!submitTask(countDown(guard(instrument(r, batchRun, timeRuns), token), remaining), token)) {
+                remaining.decrementAndGet();
+                break;
+            }
         }
+        remaining.decrementAndGet();
 
-        // block until there are no running tasks
-        synchronized (idleMinHeap) {
-            while (inFlight.get() != 0) {
+        // block until the tasks of this batch are done, or dropped
+        TiredThread helper = helpingWorker();
+        while (remaining.get() != 0) {
+            if (helper != null && helpOnce(helper)) {
+                continue;
+            }
+            synchronized (monitor) {
+                if (remaining.get() == 0) {
+                    break;
+                }
                 try {
-                    idleMinHeap.wait();
+                    monitor.wait(helper != null ? 1 : pollMillis(token));
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
+                    token.cancel(new CancellationException("Interrupted"));
+                    return;
+                }
+            }
+            // notices a passed deadline, so the batch's tasks see it too
+            token.isCancelled();
+        }
+        recordBatch(System.nanoTime() - start, batchRun.sum());
+
+        RuntimeException failure = token.reason();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // skips task once token is cancelled, and cancels token if task fails
+    private static Runnable guard(Runnable task, CancellationToken token) {
+        return () -> {
+            if (token.isCancelled()) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                token.cancel(ex);
+            }
+        };
+    }
+
+    // runs task, then counts remaining down, waking the batch's submitter at 0
+    private Runnable countDown(Runnable task, AtomicInteger remaining) {
+        return () -> {
+            try {
+                task.run();
+            } finally {
+                if (remaining.decrementAndGet() == 0) {
+                    synchronized (monitor) {
+                        monitor.notifyAll();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs a batch like submitAll, speculatively: once SPECULATE_AFTER of the batch has committed,
+     * a task that has been running SPECULATE_FACTOR times the batch's median task time or longer is
+     * started a second time, on an idle worker if there is one. Whichever attempt computes first
+     * commits; the other attempt's result is dropped. Returns once every task has committed, without
+     * waiting for the losing attempts, and rethrows the first failure.
+     */
+    public void submitSpeculative(List<? extends SpeculativeTask<?>> tasks) {
+        submitSpeculative(tasks, new CancellationToken(), null);
+    }
+
+    /**
+     * Like submitSpeculative(tasks), failing fast on token as submitAll(tasks, token) does.
+     */
+    public void submitSpeculative(List<? extends SpeculativeTask<?>> tasks, CancellationToken token) {
+        submitSpeculative(tasks, token, null);
+    }
+
+    /**
+     * Like submitSpeculative(tasks, token). Losing attempts may still be computing when this returns,
+     * so whatever they read must stay valid until whenSettled (if not null) runs: once every attempt
+     * has ended, whether the batch completed or failed, on the thread that ends the last one.
+     */
+    public void submitSpeculative(List<? extends SpeculativeTask<?>> tasks, CancellationToken token,
+                                  Runnable whenSettled) {
+        if (tasks == null) {
+            throw new IllegalArgumentException("tasks cannot be null");
+        }
+        if (token == null) {
+            throw new IllegalArgumentException("token cannot be null");
+        }
+        for (SpeculativeTask<?> task : tasks) {
+            if (task == null) {
+                throw new IllegalArgumentException("task cannot be null");
+            }
+        }
+        if (tasks.isEmpty()) {
+            if (whenSettled != null) {
+                whenSettled.run();
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        SpeculativeBatch batch = new SpeculativeBatch(tasks, token, whenSettled);
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                if (!batch.launch(i, task -> submitTask(task, token))) {
+                    for (int j = i; j < batch.size(); j++) {
+                        batch.drop(j);
+                    }
                     break;
                 }
             }
+
+            TiredThread helper = helpingWorker();
+            while (batch.remaining.get() != 0) {
+                if (helper == null || !helpOnce(helper)) {
+                    synchronized (monitor) {
+                        try {
+                            if (batch.remaining.get() != 0) {
+                                // wake up now and then to look for stragglers
+                                monitor.wait(1);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            token.cancel(new CancellationException("Interrupted"));
+                            return;
+                        }
+                    }
+                }
+                if (!token.isCancelled()) {
+                    batch.speculate();
+                }
+            }
+        } finally {
+            // no attempt is launched from here on
+            batch.attemptEnded();
+        }
+        recordBatch(System.nanoTime() - start, batch.runNanos.sum());
+
+        RuntimeException failure = token.reason();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // starts task on an idle worker, if there is one right now
+    private boolean submitIfIdle(Runnable task) {
+        if (mode == SchedulingMode.WORK_STEALING) {
+            for (TiredThread worker : peers) {
+                if (worker.isWaiting()) {
+                    submitStealing(task);
+                    return true;
+                }
+            }
+            return false;
+        }
+        TiredThread worker = claimIdle();
+        if (worker == null) {
+            return false;
+        }
+        inFlight.incrementAndGet();
+        assign(worker, task);
+        return true;
+    }
+
+    // attempts and commits of a submitSpeculative batch
+    private final class SpeculativeBatch {
+        private final SpeculativeTask<Object>[] tasks;
+        private final AtomicBoolean[] committed;
+        private final AtomicBoolean[] duplicated;
+        private final long[] startedAt; // 0 until the first attempt started
+        private final long[] durations; // of the committing attempt, -1 until then
+        private final AtomicInteger remaining;
+        private final CancellationToken token;
+        private final LongAdder runNanos = new LongAdder();
+        // attempts not ended yet, plus one while the submitter may still launch some
+        private final AtomicInteger attempts = new AtomicInteger(1);
+        private final Runnable whenSettled;
+
+        @SuppressWarnings("unchecked")
+        SpeculativeBatch(List<? extends SpeculativeTask<?>> list, CancellationToken token, Runnable whenSettled) {
+            this.token = token;
+            this.whenSettled = whenSettled;
+            int n = list.size();
+            tasks = list.toArray(new SpeculativeTask[0]);
+            committed = new AtomicBoolean[n];
+            duplicated = new AtomicBoolean[n];
+            for (int i = 0; i < n; i++) {
+                committed[i] = new AtomicBoolean(false);
+                duplicated[i] = new AtomicBoolean(false);
+            }
+            startedAt = new long[n];
+            durations = new long[n];
+            Arrays.fill(durations, -1);
+            remaining = new AtomicInteger(n);
+        }
+
+        int size() {
+            return tasks.length;
+        }
+
+        // hands an attempt of task i to submit, counted until it has ended; false if submit refused it
+        boolean launch(int i, Predicate<Runnable> submit) {
+            attempts.incrementAndGet();
+            Runnable attempt = instrument(attempt(i), runNanos);
+            boolean launched = submit.test(() -> {
+                try {
+                    attempt.run();
+                } finally {
+                    attemptEnded();
+                }
+            });
+            if (!launched) {
+                attemptEnded();
+            }
+            return launched;
+        }
+
+        void attemptEnded() {
+            if (attempts.decrementAndGet() == 0 && whenSettled != null) {
+                whenSettled.run();
+            }
+        }
+
+        Runnable attempt(int i) {
+            return () -> {
+                if (committed[i].get()) {
+                    // the other attempt already won
+                    return;
+                }
+                if (token.isCancelled()) {
+                    drop(i);
+                    return;
+                }
+                long begin = System.nanoTime();
+                synchronized (this) {
+                    if (startedAt[i] == 0) {
+                        startedAt[i] = begin;
+                    }
+                }
+                Object result;
+                try {
+                    result = tasks[i].compute();
+                } catch (RuntimeException ex) {
+                    if (committed[i].compareAndSet(false, true)) {
+                        token.cancel(ex);
+                        finish(i, begin);
+                    }
+                    return;
+                }
+                if (committed[i].compareAndSet(false, true)) {
+                    try {
+                        if (!token.isCancelled()) {
+                            tasks[i].commit(result);
+                        }
+                    } catch (RuntimeException ex) {
+                        token.cancel(ex);
+                    }
+                    if (duplicated[i].get() && begin != startedAt[i]) {
+                        speculativeWins.incrementAndGet();
+                    }
+                    finish(i, begin);
+                }
+            };
+        }
+
+        // settles task i without running it, once the batch is cancelled
+        void drop(int i) {
+            if (committed[i].compareAndSet(false, true)) {
+                finish(i, System.nanoTime());
+            }
+        }
+
+        private void finish(int i, long begin) {
+            synchronized (this) {
+                durations[i] = System.nanoTime() - begin;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                synchronized (monitor) {
+                    monitor.notifyAll();
+                }
+            }
+        }
+
+        // duplicates the stragglers, while there are idle workers to run them
+        void speculate() {
+            int n = tasks.length;
+            long threshold;
+            long[] started;
+            synchronized (this) {
+                long[] done = new long[n];
+                int count = 0;
+                for (long d : durations) {
+                    if (d >= 0) {
+                        done[count++] = d;
+                    }
+                }
+                if (count == 0 || count < SPECULATE_AFTER * n) {
+                    return;
+                }
+                Arrays.sort(done, 0, count);
+                threshold = SPECULATE_FACTOR * Math.max(1, done[count / 2]);
+                started = startedAt.clone();
+            }
+            long now = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                if (committed[i].get() || started[i] == 0 || now - started[i] < threshold) {
+                    continue;
+                }
+                if (duplicated[i].compareAndSet(false, true)) {
+                    if (!launch(i, TiredExecutor.this::submitIfIdle)) {
+                        duplicated[i].set(false);
+                        return;
+                    }
+                    speculativeLaunches.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs work over [0, count) and waits for it, like submitAll. Instead of fixed chunks every worker
+     * keeps claiming chunks sized by its share of the pool's measured throughput (see WeightedRange),
+     * none smaller than minChunk units, so slower workers get smaller slices and the batch does not end
+     * waiting on a straggler. unitCost is the work of one unit, in the units workers' throughput is
+     * measured in.
+     */
+    public void submitRange(int count, long unitCost, int minChunk, RangeTask work) {
+        submitRange(count, unitCost, minChunk, work, new CancellationToken());
+    }
+
+    /**
+     * Like submitRange(count, unitCost, minChunk, work), failing fast on token as submitAll(tasks, token)
+     * does; the workers also look at token between chunks.
+     */
+    public void submitRange(int count, long unitCost, int minChunk, RangeTask work, CancellationToken token) {
+        if (work == null) {
+            throw new IllegalArgumentException("work cannot be null");
+        }
+        if (token == null) {
+            throw new IllegalArgumentException("token cannot be null");
+        }
+        if (count <= 0) {
+            return;
+        }
+        if (minChunk <= 0 || unitCost <= 0) {
+            throw new IllegalArgumentException("minChunk and unitCost must be positive");
+        }
+        List<TiredThread> live = liveWorkerList();
+        double[] weights = new double[workers.length()];
+        double known = 0;
+        int measured = 0;
+        for (TiredThread worker : live) {
+            double throughput = worker.getThroughput();
+            if (throughput > 0) {
+                known += throughput;
+                measured++;
+            }
+        }
+        // workers without measurements yet count as average ones
+        double average = measured == 0 ? 1 : known / measured;
+        for (TiredThread worker : live) {
+            double throughput = worker.getThroughput();
+            weights[worker.getWorkerId()] = throughput > 0 ? throughput : average;
+        }
+
+        int runners = (int) Math.max(1, Math.min(live.size(), ((long) count + minChunk - 1) / minChunk));
+        WeightedRange range = new WeightedRange(count, minChunk, weights, live.size());
+        LongAdder batchRun = new LongAdder();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int r = 0; r < runners; r++) {
+            tasks.add(() -> runChunks(range, unitCost, work, token, batchRun));
+        }
+        // a runner lives for the whole batch, its chunks are the tasks the metrics count
+        submitAll(tasks, token, batchRun, false);
+    }
+
+    private void runChunks(WeightedRange range, long unitCost, RangeTask work, CancellationToken token,
+                           LongAdder batchRun) {
+        Thread current = Thread.currentThread();
+        TiredThread self = current instanceof TiredThread ? (TiredThread) current : null;
+        int slot = self != null ? self.getWorkerId() : -1;
+        long chunk;
+        while (!token.isCancelled() && (chunk = range.claim(slot)) >= 0) {
+            int from = (int) (chunk >>> 32);
+            int to = (int) chunk;
+            long start = System.nanoTime();
+            try {
+                work.run(from, to);
+            } finally {
+                recordRun(System.nanoTime() - start, batchRun);
+            }
+            if (self != null) {
+                self.recordWork((to - from) * unitCost, System.nanoTime() - start);
+            }
         }
     }
 
     public void shutdown() throws InterruptedException {
-        // wait until there are no running tasks
-        synchronized (idleMinHeap) {
-            while (inFlight.get() > 0) {
-                idleMinHeap.wait();
+        // wait until there are no running tasks, nor backlogged ones
+        synchronized (monitor) {
+            while (inFlight.get() > 0 || pendingAsync.get() > 0) {
+                monitor.wait();
             }
         }
 
+        // no more workers come or go
+        synchronized (poolLock) {
+            stopping = true;
+        }
+        if (maintainer != null) {
+            maintainer.interrupt();
+            maintainer.join();
+        }
+        List<TiredThread> live = liveWorkerList();
+
         // ask all workers to stop working
-        for (TiredThread t : workers) {
+        for (TiredThread t : live) {
             t.shutdown();
         }
 
         // wait for all threads to terminate
-        for (TiredThread t : workers) {
+        for (TiredThread t : live) {
             t.join();
         }
+        unregisterMBean();
+    }
+
+    /**
+     * Snapshot of the scheduling metrics, see ExecutorMetrics.
+     */
+    public ExecutorMetrics getMetrics() {
+        List<ExecutorMetrics.WorkerMetrics> perWorker = new ArrayList<>();
+        for (TiredThread worker : liveWorkerList()) {
+            perWorker.add(new ExecutorMetrics.WorkerMetrics(worker));
+        }
+        return new ExecutorMetrics(perWorker, queueWait, runTime, batches.get(), lastBatchMakespan.get(),
+                lastBatchIdeal.get(), totalMakespan.get(), totalIdeal.get());
+    }
+
+    /**
+     * Exposes getMetrics() on the platform MBean server as scheduling:type=TiredExecutor,name=name,
+     * until shutdown().
+     */
+    public synchronized ObjectName registerMBean(String name) {
+        if (mbeanName != null) {
+            throw new IllegalStateException("MBean already registered as " + mbeanName);
+        }
+        try {
+            ObjectName objectName = new ObjectName("scheduling:type=TiredExecutor,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), objectName);
+            mbeanName = objectName;
+            return objectName;
+        } catch (JMException ex) {
+            throw new IllegalStateException("Cannot register executor MBean: " + ex.getMessage(), ex);
+        }
+    }
+
+    private synchronized void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(mbeanName)) {
+                server.unregisterMBean(mbeanName);
+            }
+        } catch (JMException ex) {
+            // the executor is gone either way
+        }
+        mbeanName = null;
+    }
+
+    private final class MetricsBean implements ExecutorMetricsMXBean {
+        @Override
+        public String getMode() {
+            return mode.name();
+        }
+
+        @Override
+        public int getWorkers() {
+            return liveWorkers.get();
+        }
+
+        @Override
+        public long getTasksCompleted() {
+            return runTime.count();
+        }
+
+        @Override
+        public long[] getTasksPerWorker() {
+            List<TiredThread> live = liveWorkerList();
+            long[] tasks = new long[live.size()];
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i] = live.get(i).getTasksCompleted();
+            }
+            return tasks;
+        }
+
+        @Override
+        public long getQueueWaitP50Nanos() {
+            return queueWait.percentile(50);
+        }
+
+        @Override
+        public long getQueueWaitP99Nanos() {
+            return queueWait.percentile(99);
+        }
+
+        @Override
+        public long getQueueWaitMaxNanos() {
+            return queueWait.max();
+        }
+
+        @Override
+        public long getRunTimeP50Nanos() {
+            return runTime.percentile(50);
+        }
+
+        @Override
+        public long getRunTimeP99Nanos() {
+            return runTime.percentile(99);
+        }
+
+        @Override
+        public long getRunTimeMaxNanos() {
+            return runTime.max();
+        }
+
+        @Override
+        public long getBatches() {
+            return batches.get();
+        }
+
+        @Override
+        public long getLastBatchMakespanNanos() {
+            return lastBatchMakespan.get();
+        }
+
+        @Override
+        public long getLastBatchIdealNanos() {
+            return lastBatchIdeal.get();
+        }
+
+        @Override
+        public double getBatchEfficiency() {
+            return getMetrics().getBatchEfficiency();
+        }
+
+        @Override
+        public double getIdleRatio() {
+            return getMetrics().getIdleRatio();
+        }
+
+        @Override
+        public long getAverageHandoffNanos() {
+            return getMetrics().getAverageHandoff();
+        }
     }
 
     public synchronized String getWorkerReport() {
         StringBuilder report = new StringBuilder();
 
         // go over all workers and build report string
-        for (TiredThread worker : workers) {
+        for (TiredThread worker : liveWorkerList()) {
             report.append("Worker ")
                     .append(worker.getWorkerId())
                     .append(" | busy=")
@@ -136,6 +1343,27 @@ public class TiredExecutor {
                     .append(worker.getTimeIdle())
                     .append(" | fatigue=")
                     .append(worker.getFatigue())
+                    .append(" | handoffs=")
+                    .append(worker.getHandoffCount())
+                    .append(" | handoffAvg(ns)=")
+                    .append(worker.getAverageHandoffNanos())
+                    .append(" | parks=")
+                    .append(worker.getParkCount())
+                    .append(" | throughput=")
+                    .append(String.format("%.3f", worker.getThroughput()))
+                    .append('\n');
+        }
+        if (speculativeLaunches.get() > 0) {
+            report.append("Speculation | launched=").append(speculativeLaunches.get())
+                    .append(" | won=").append(speculativeWins.get())
+                    .append('\n');
+        }
+        if (elastic != null) {
+            report.append("Pool | elastic ").append(elastic)
+                    .append(" | workers=").append(liveWorkers.get())
+                    .append(" | started=").append(workersStarted.get())
+                    .append(" | retired=").append(workersRetired.get())
+                    .append(" | rotated=").append(workersRotated.get())
                     .append('\n');
         }
 
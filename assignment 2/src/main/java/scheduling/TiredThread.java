@@ -1,9 +1,10 @@
 package scheduling;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 public class TiredThread extends Thread implements Comparable<TiredThread> {
 
@@ -14,17 +15,42 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
 
     private final AtomicBoolean alive = new AtomicBoolean(true); // Indicates if the worker should keep running
 
-    // Single-slot handoff queue; executor will put tasks here
-    private final BlockingQueue<Runnable> handoff = new ArrayBlockingQueue<>(1);
+    // Single-slot handoff; executor will put tasks here. The worker waits on it as set by waitStrategy
+    private final AtomicReference<Handoff> handoff = new AtomicReference<>();
+    private final WaitStrategy waitStrategy;
+    private volatile boolean parked = false; // parked, or about to park, on an empty handoff slot
+
+    // handoff latency: from newTask() until the worker picked the task up
+    private final AtomicLong handoffs = new AtomicLong(0);
+    private final AtomicLong handoffNanos = new AtomicLong(0);
+    private final AtomicLong parks = new AtomicLong(0); // waits that ended up parking
+    private final AtomicLong tasksCompleted = new AtomicLong(0);
+    // measured work units per ns (moving average), 0 until the worker ran a ranged task; written by this worker only
+    private volatile double throughput = 0;
+    private volatile long workSamples = 0; // ranged chunks behind throughput, written by this worker only
+
+    // Work-stealing mode only: own deque (owner takes from the head, thieves from the tail) and all workers
+    private final ConcurrentLinkedDeque<Runnable> deque = new ConcurrentLinkedDeque<>();
+    private TiredThread[] peers = null;
+    private volatile boolean waiting = false; // parked, or about to park, with nothing to run
 
     private final AtomicBoolean busy = new AtomicBoolean(false); // Indicates if the worker is currently executing a task
 
-    private final AtomicLong timeUsed = new AtomicLong(0); // Total time spent executing tasks
+    private final AtomicLong timeUsed = new AtomicLong(0); // Total time spent executing finished tasks
+    private volatile long workStart = 0; // Start of the running task, 0 while idle
     private final AtomicLong timeIdle = new AtomicLong(0); // Total time spent idle
     private final AtomicLong idleStartTime = new AtomicLong(0); // Timestamp when the worker became idle
 
     public TiredThread(int id, double fatigueFactor) {
+        this(id, fatigueFactor, WaitStrategy.PARK);
+    }
+
+    public TiredThread(int id, double fatigueFactor, WaitStrategy waitStrategy) {
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException("waitStrategy cannot be null");
+        }
         this.id = id;
+        this.waitStrategy = waitStrategy;
         this.fatigueFactor = fatigueFactor;
         this.idleStartTime.set(System.nanoTime());
         setName(String.format("FF=%.2f", fatigueFactor));
@@ -35,31 +61,144 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
     }
 
     public double getFatigue() {
-        return fatigueFactor * timeUsed.get();
+        return fatigueFactor * getTimeUsed();
     }
 
     public boolean isBusy() {
         return busy.get();
     }
 
+    /**
+     * Time spent executing tasks, including the running one so far: a worker that is busy
+     * with a long task is already tired while it runs.
+     */
     public long getTimeUsed() {
-        return timeUsed.get();
+        long used = timeUsed.get();
+        long start = workStart;
+        return start != 0 ? used + Math.max(0, System.nanoTime() - start) : used;
     }
 
     public long getTimeIdle() {
         return timeIdle.get();
     }
 
+    public long getHandoffCount() {
+        return handoffs.get();
+    }
+
+    /**
+     * Average time between newTask() and the worker starting to run the task, 0 before the first one.
+     */
+    public long getAverageHandoffNanos() {
+        long count = handoffs.get();
+        return count == 0 ? 0 : handoffNanos.get() / count;
+    }
+
+    public long getTasksCompleted() {
+        return tasksCompleted.get();
+    }
+
+    /**
+     * Average time of the finished tasks, 0 before the first one.
+     */
+    public long getAverageTaskNanos() {
+        long tasks = tasksCompleted.get();
+        return tasks == 0 ? 0 : timeUsed.get() / tasks;
+    }
+
+    /**
+     * Work units per ns over this worker's recent ranged tasks (see TiredExecutor.submitRange),
+     * 0 while unknown.
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    // called by this worker after it processed units work units in nanos
+    void recordWork(long units, long nanos) {
+        if (units <= 0) {
+            return;
+        }
+        double sample = (double) units / Math.max(1, nanos);
+        double current = throughput;
+        throughput = current == 0 ? sample : current + (sample - current) / 4;
+        workSamples++;
+    }
+
+    // number of ranged chunks getThroughput() was measured over
+    long getWorkSamples() {
+        return workSamples;
+    }
+
+    /**
+     * How long this worker has been waiting for a task so far, 0 while it runs one.
+     */
+    public long getIdleNanos() {
+        if (busy.get() || workStart != 0) {
+            return 0;
+        }
+        return Math.max(0, System.nanoTime() - idleStartTime.get());
+    }
+
+    public long getParkCount() {
+        return parks.get();
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
     /**
      * Assign a task to this worker.
      * This method is non-blocking: if the worker is not ready to accept a task,
      * it throws IllegalStateException.
      */
     public void newTask(Runnable task) {
-        if (!handoff.offer(task)) {
+        if (!offer(task)) {
             throw new IllegalStateException("Worker is busy");}
     }
 
+    private boolean offer(Runnable task) {
+        if (!handoff.compareAndSet(null, new Handoff(task, System.nanoTime()))) {
+            return false;
+        }
+        // the slot is filled before the flag is read, see awaitHandoff
+        if (parked) {
+            LockSupport.unpark(this);
+        }
+        return true;
+    }
+
+    /**
+     * Switches this worker to work stealing among peers (which include this worker).
+     * Must be called before the worker is started.
+     */
+    void joinPeers(TiredThread[] peers) {
+        if (getState() != State.NEW) {
+            throw new IllegalStateException("Worker already started");
+        }
+        this.peers = peers;
+    }
+
+    /**
+     * Queues a task on this worker's deque (work-stealing mode). Never blocks,
+     * the caller is responsible for waking an idle worker afterwards.
+     */
+    void push(Runnable task) {
+        deque.addLast(task);
+    }
+
+    boolean isWaiting() {
+        return waiting;
+    }
+
+    // unparks this worker if it is waiting for work; it stops counting as waiting right away,
+    // so the tasks pushed next go to (and wake) other waiting workers
+    void wake() {
+        waiting = false;
+        LockSupport.unpark(this);
+    }
+
     /**
      * Request this worker to stop after finishing current task.
      * Inserts a poison pill so the worker wakes up and exits.
@@ -67,21 +206,34 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
     public void shutdown() {
         alive.set(false);
 
-        while (!handoff.offer(POISON_PILL)) {
+        if (peers != null) {
+            wake();
+            return;
+        }
+        while (!offer(POISON_PILL)) {
             Thread.yield();
         }
     }
 
     @Override
     public void run() {
+        if (peers != null) {
+            runStealing();
+            return;
+        }
         try {
             while (true) {
                 idleStartTime.set(System.nanoTime());
 
-                Runnable task = handoff.take();
+                Handoff next = awaitHandoff();
+                Runnable task = next.task;
 
                 long now = System.nanoTime();
                 timeIdle.addAndGet(now - idleStartTime.get());
+                if (task != POISON_PILL) {
+                    handoffs.incrementAndGet();
+                    handoffNanos.addAndGet(now - next.offeredAt);
+                }
 
                 if (task == POISON_PILL) {
                     break;
@@ -90,15 +242,141 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
                 busy.set(true);
 
                 long startWork = System.nanoTime();
+                workStart = startWork;
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    // a failed task must not take the worker down with it
+                    getUncaughtExceptionHandler().uncaughtException(this, ex);
+                } finally {
+                    long endWork = System.nanoTime();
+                    timeUsed.addAndGet(endWork - startWork);
+                    workStart = 0;
+                    tasksCompleted.incrementAndGet();
+                }
+
+                busy.set(false);
+            }
+        } catch (InterruptedException e) {
+            //must catch becouse awaitHandoff parks
+
+        }
+    }
+
+    // spin, then yield, then park until the executor fills the handoff slot
+    private Handoff awaitHandoff() throws InterruptedException {
+        Handoff next;
+        for (int i = 0; i < waitStrategy.spins(); i++) {
+            if ((next = pollHandoff()) != null) {
+                return next;
+            }
+            Thread.onSpinWait();
+        }
+        for (int i = 0; i < waitStrategy.yields(); i++) {
+            if ((next = pollHandoff()) != null) {
+                return next;
+            }
+            Thread.yield();
+        }
+        while (true) {
+            // announce before the last look, so an offer either is seen here or sees the flag
+            parked = true;
+            if ((next = pollHandoff()) != null) {
+                parked = false;
+                return next;
+            }
+            parks.incrementAndGet();
+            LockSupport.park(this);
+            parked = false;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if ((next = pollHandoff()) != null) {
+                return next;
+            }
+        }
+    }
+
+    private Handoff pollHandoff() {
+        return handoff.get() != null ? handoff.getAndSet(null) : null;
+    }
+
+    private void runStealing() {
+        while (alive.get()) {
+            idleStartTime.set(System.nanoTime());
+
+            Runnable task = nextTask();
+            for (int i = 0; task == null && i < waitStrategy.spins(); i++) {
+                Thread.onSpinWait();
+                task = nextTask();
+            }
+            for (int i = 0; task == null && i < waitStrategy.yields(); i++) {
+                Thread.yield();
+                task = nextTask();
+            }
+            while (task == null && alive.get()) {
+                // announce before the last look, so a push either is seen here or sees the flag
+                waiting = true;
+                task = nextTask();
+                if (task == null) {
+                    parks.incrementAndGet();
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        waiting = false;
+                        return;
+                    }
+                    task = nextTask();
+                }
+                waiting = false;
+            }
+
+            long now = System.nanoTime();
+            timeIdle.addAndGet(now - idleStartTime.get());
+
+            if (task == null) {
+                break;
+            }
+
+            busy.set(true);
+            long startWork = System.nanoTime();
+            workStart = startWork;
+            try {
                 task.run();
+            } catch (RuntimeException ex) {
+                // a failed task must not take the worker down with it
+                getUncaughtExceptionHandler().uncaughtException(this, ex);
+            } finally {
                 long endWork = System.nanoTime();
-
                 timeUsed.addAndGet(endWork - startWork);
+                workStart = 0;
+                tasksCompleted.incrementAndGet();
                 busy.set(false);
             }
-        } catch (InterruptedException e) {
-            //must catch becouse habdoff.take
+        }
+    }
+
+    // a queued task this worker can run while it waits on a batch it submitted (work-stealing mode)
+    Runnable pollTask() {
+        return peers != null ? nextTask() : null;
+    }
+
+    // own work first, oldest first; then the newest task of the next peer that has any
+    private Runnable nextTask() {
+        Runnable task = deque.pollFirst();
+        for (int k = 1; task == null && k < peers.length; k++) {
+            task = peers[(id + k) % peers.length].deque.pollLast();
+        }
+        return task;
+    }
+
+    // a task in the handoff slot, with the time it was offered
+    private static final class Handoff {
+        private final Runnable task;
+        private final long offeredAt;
 
+        Handoff(Runnable task, long offeredAt) {
+            this.task = task;
+            this.offeredAt = offeredAt;
         }
     }
 
@@ -0,0 +1,48 @@
+package scheduling;
+
+/**
+ * How an idle TiredThread waits for its next task: up to spins busy polls (Thread.onSpinWait),
+ * then up to yields polls that give the CPU away (Thread.yield), then it parks until a task is handed
+ * over. Spinning saves the park/unpark round trip when tasks follow each other closely, at the cost
+ * of burning a core while waiting, so it only pays off with more cores than busy workers.
+ *
+ * The engine reads the budgets from -Dlae.spin and -Dlae.yield. Without them it spins only on
+ * multi-core machines, see configured().
+ */
+public final class WaitStrategy {
+
+    public static final WaitStrategy PARK = new WaitStrategy(0, 0);
+    public static final int DEFAULT_SPINS = 1 << 10;
+    public static final int DEFAULT_YIELDS = 8;
+
+    private final int spins;
+    private final int yields;
+
+    public WaitStrategy(int spins, int yields) {
+        if (spins < 0 || yields < 0) {
+            throw new IllegalArgumentException("spin and yield budgets cannot be negative");
+        }
+        this.spins = spins;
+        this.yields = yields;
+    }
+
+    public static WaitStrategy configured() {
+        boolean multiCore = Runtime.getRuntime().availableProcessors() > 1;
+        int spins = Integer.getInteger("lae.spin", multiCore ? DEFAULT_SPINS : 0);
+        int yields = Integer.getInteger("lae.yield", DEFAULT_YIELDS);
+        return new WaitStrategy(spins, yields);
+    }
+
+    public int spins() {
+        return spins;
+    }
+
+    public int yields() {
+        return yields;
+    }
+
+    @Override
+    public String toString() {
+        return "spin=" + spins + " yield=" + yields;
+    }
+}
@@ -0,0 +1,53 @@
+package scheduling;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared cursor over [0, count) for TiredExecutor.submitRange. Workers claim chunks from it until it
+ * runs out, each chunk a fraction of what is left proportional to the claiming worker's share of the
+ * pool's throughput (guided self-scheduling, weighted): fast workers take big chunks early, chunks
+ * shrink towards the end, so nobody is left holding a large chunk while the others are done.
+ */
+final class WeightedRange {
+
+    private final int count;
+    private final int minChunk;
+    private final double[] shares; // by worker slot
+    private final double defaultShare; // for workers that joined after the weights were taken
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    /**
+     * @param weights throughput of each worker slot, 0 for slots that take no part
+     */
+    WeightedRange(int count, int minChunk, double[] weights, int participants) {
+        this.count = count;
+        this.minChunk = Math.max(1, minChunk);
+        double total = 0;
+        for (double w : weights) {
+            total += w;
+        }
+        shares = new double[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            shares[i] = total > 0 ? weights[i] / total : 0;
+        }
+        defaultShare = 1.0 / Math.max(1, participants);
+    }
+
+    /**
+     * Claims the next chunk for the worker in slot, as from << 32 | to, or -1 once the range is exhausted.
+     */
+    long claim(int slot) {
+        double share = slot >= 0 && slot < shares.length && shares[slot] > 0 ? shares[slot] : defaultShare;
+        while (true) {
+            int from = next.get();
+            if (from >= count) {
+                return -1;
+            }
+            int remaining = count - from;
+            int size = (int) Math.min(remaining, Math.max(minChunk, Math.ceil(remaining * share / 2)));
+            if (next.compareAndSet(from, from + size)) {
+                return (long) from << 32 | (from + size);
+            }
+        }
+    }
+}
@@ -4,44 +4,224 @@ import parser.*;
 import memory.*;
 import scheduling.*;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LinearAlgebraEngine {
 
-    private SharedMatrix leftMatrix = new SharedMatrix();
-    private SharedMatrix rightMatrix = new SharedMatrix();
+    // names the executor MBeans of engines created with -Dlae.jmx=true
+    private static final AtomicInteger ENGINE_IDS = new AtomicInteger();
+
     private TiredExecutor executor;
+    // recycles operand storage, product buffers and multiply scratch from one node to the next
+    private final BufferPool pool;
+    private final int numThreads;
+    private final MultiplyStrategy multiplyStrategy;
+    private final int strassenCutoff;
+    private final ElementType elementType;
+    // -Dlae.speculate=true: element-wise and row-wise nodes run as speculative batches
+    private final boolean speculative;
+    // how many MULTIPLY nodes ran with each algorithm, for the report
+    private final Map<MultiplyStrategy, Integer> multiplyCounts = new EnumMap<>(MultiplyStrategy.class);
+    private MultiplyStrategy lastMultiplyAlgorithm = null;
+    // most nodes ready or being evaluated at the same time during a run, for the report
+    private final AtomicInteger peakNodeConcurrency = new AtomicInteger();
 
     public LinearAlgebraEngine(int numThreads) {
+        this(numThreads, MultiplyStrategy.TILED);
+    }
+
+    public LinearAlgebraEngine(int numThreads, MultiplyStrategy multiplyStrategy) {
+        this(numThreads, multiplyStrategy, StrassenMultiply.DEFAULT_CUTOFF);
+    }
+
+    public LinearAlgebraEngine(int numThreads, ElementType elementType) {
+        this(numThreads, MultiplyStrategy.TILED, StrassenMultiply.DEFAULT_CUTOFF, elementType);
+    }
+
+    public LinearAlgebraEngine(int numThreads, MultiplyStrategy multiplyStrategy, int strassenCutoff) {
+        this(numThreads, multiplyStrategy, strassenCutoff, ElementType.DOUBLE);
+    }
+
+    /**
+     * @param elementType FLOAT computes every dense result in single precision (FloatMatrix),
+     *                    multiplyStrategy and strassenCutoff then only apply to DOUBLE
+     */
+    public LinearAlgebraEngine(int numThreads, MultiplyStrategy multiplyStrategy, int strassenCutoff,
+                               ElementType elementType) {
         if (numThreads <= 0) {
             throw new IllegalArgumentException("numThreads must be positive");
         }
-        this.executor = new TiredExecutor(numThreads);
+        if (multiplyStrategy == null) {
+            throw new IllegalArgumentException("multiplyStrategy cannot be null");
+        }
+        if (strassenCutoff <= 0) {
+            throw new IllegalArgumentException("strassenCutoff must be positive");
+        }
+        if (elementType == null) {
+            throw new IllegalArgumentException("elementType cannot be null");
+        }
+        this.pool = new BufferPool();
+        this.speculative = Boolean.getBoolean("lae.speculate");
+        SchedulingMode mode = SchedulingMode.configured();
+        // an elastic pool (-Dlae.maxThreads) starts at numThreads, moved into its bounds; work stealing stays fixed
+        ElasticPolicy elastic = mode == SchedulingMode.HANDOFF ? ElasticPolicy.configured() : null;
+        this.executor = new TiredExecutor(elastic == null ? numThreads : elastic.clamp(numThreads), mode,
+                TiredExecutor.DEFAULT_BACKLOG_CAPACITY, WaitStrategy.configured(), elastic);
+        if (Boolean.getBoolean("lae.jmx")) {
+            executor.registerMBean("engine-" + ENGINE_IDS.incrementAndGet());
+        }
+        this.numThreads = numThreads;
+        this.multiplyStrategy = multiplyStrategy;
+        this.strassenCutoff = strassenCutoff;
+        this.elementType = elementType;
     }
 
+    /**
+     * Resolves computationRoot. Every node is evaluated on the shared executor as soon as its children
+     * are resolved, so independent subtrees are evaluated at the same time, each node submitting its
+     * kernels to the same executor.
+     */
     public ComputationNode run(ComputationNode computationRoot) {
+        return run(computationRoot, new CancellationToken());
+    }
+
+    /**
+     * Like run(computationRoot), giving up with a CancellationException once timeout has passed.
+     */
+    public ComputationNode run(ComputationNode computationRoot, long timeout, TimeUnit unit) {
+        return run(computationRoot, CancellationToken.withTimeout(timeout, unit));
+    }
+
+    /**
+     * Like run(computationRoot), stopping as soon as token is cancelled: queued tasks are dropped,
+     * running ones stop at their next checkpoint and the reason is thrown. A failing task cancels
+     * token in turn, so the rest of the computation is skipped and the nodes running next to it stop.
+     */
+    public ComputationNode run(ComputationNode computationRoot, CancellationToken token) {
         if (computationRoot == null) {
             throw new IllegalArgumentException("computationRoot cannot be null");
         }
+        if (token == null) {
+            throw new IllegalArgumentException("token cannot be null");
+        }
+        token.checkpoint();
+        RunContext run = new RunContext(token);
 
 // apply associative nesting if required by the spec
         computationRoot.associativeNesting();
+        // A * B + C runs as one fused multiply-accumulate
+        computationRoot.fuseMultiplyAdd();
+
+// resolve every node, each once its children are resolved, until the root becomes a matrix node
+        CompletableFuture<Void> start = new CompletableFuture<>();
+        CompletableFuture<Void> root = schedule(computationRoot, start, run);
+        peakNodeConcurrency.accumulateAndGet(run.inFlight.get(), Math::max);
+        start.complete(null);
+
+        // whatever happens, no evaluation is left running once this returns
+        CompletableFuture<Void> all = CompletableFuture.allOf(run.evaluations.toArray(new CompletableFuture<?>[0]));
+        boolean interrupted = false;
+        while (true) {
+            try {
+                all.get();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+                token.cancel(new CancellationException("Interrupted"));
+            } catch (ExecutionException ex) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
 
-// keep resolving until the root becomes a matrix node
-        while (computationRoot.getNodeType() != ComputationNodeType.MATRIX) {
-            ComputationNode nextNode = computationRoot.findResolvable();
-            if (nextNode == null) {
-                throw new IllegalStateException("No resolvable node found");
+        if (root.isCompletedExceptionally()) {
+            // the first failure cancelled token, the other evaluations failed because of it
+            RuntimeException reason = token.reason();
+            if (reason != null) {
+                throw reason;
             }
+            try {
+                root.join();
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof Error) {
+                    throw (Error) ex.getCause();
+                }
+                throw ex;
+            }
+        }
+        return computationRoot;
+    }
 
-            loadAndCompute(nextNode);
+    // state of one run(): every node evaluated for it shares its token, a failed batch cancels it
+    private static final class RunContext {
+        final CancellationToken token;
+        // nodes that are ready or being evaluated
+        final AtomicInteger inFlight = new AtomicInteger();
+        // every node evaluation, only added to by the thread calling run()
+        final List<CompletableFuture<Void>> evaluations = new ArrayList<>();
 
+        RunContext(CancellationToken token) {
+            this.token = token;
         }
+    }
 
-        return computationRoot;
+    /**
+     * Schedules the evaluation of node, and of the unresolved nodes below it, on the executor: a node
+     * runs once start and the evaluations of its children have completed, and fails without running if
+     * one of them failed. run.inFlight counts the nodes that are ready or running, from the moment their
+     * inputs are done (before start completes for the nodes ready from the start) until their evaluation
+     * has ended, whether it ran or was skipped.
+     */
+    private CompletableFuture<Void> schedule(ComputationNode node, CompletableFuture<Void> start, RunContext run) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            return start;
+        }
+        List<CompletableFuture<Void>> inputs = new ArrayList<>();
+        boolean ready = true;
+        for (ComputationNode child : node.getChildren()) {
+            if (child.getNodeType() != ComputationNodeType.MATRIX) {
+                ready = false;
+                inputs.add(schedule(child, start, run));
+            }
+        }
+        CompletableFuture<Void> inputsDone;
+        if (ready) {
+            run.inFlight.incrementAndGet();
+            inputsDone = start;
+        } else {
+            inputsDone = CompletableFuture.allOf(inputs.toArray(new CompletableFuture<?>[0]))
+                    .thenRun(() -> peakNodeConcurrency.accumulateAndGet(run.inFlight.incrementAndGet(), Math::max));
+        }
+
+        Runnable evaluate = () -> loadAndCompute(node, run);
+        CompletableFuture<Void> evaluation = executor.runAfter(inputsDone, List.of(evaluate), run.token)
+                .whenComplete((ignored, ex) -> {
+                    // counted once its inputs were done, it stops counting however it ends, also when
+                    // a cancelled token made the executor skip it
+                    if (!inputsDone.isCompletedExceptionally()) {
+                        run.inFlight.decrementAndGet();
+                    }
+                });
+        run.evaluations.add(evaluation);
+        return evaluation;
     }
 
     public void loadAndCompute(ComputationNode node) {
+        loadAndCompute(node, new RunContext(new CancellationToken()));
+    }
+
+    private void loadAndCompute(ComputationNode node, RunContext run) {
         if (node.getNodeType() == ComputationNodeType.MATRIX) {
             return;
         }
@@ -51,106 +231,741 @@ public class LinearAlgebraEngine {
             }
         }
 
-        leftMatrix.loadRowMajor(node.getChildren().get(0).getMatrix());
+        // the children's structures are consumed along with their matrices, infer the result's first
+        MatrixStructure structure = resultStructure(node);
+        compute(node, run);
+        node.setStructure(structure);
+    }
+
+    private void compute(ComputationNode node, RunContext run) {
+        ComputationNode left = node.getChildren().get(0);
+        ComputationNode right = node.getChildren().size() > 1 ? node.getChildren().get(1) : null;
+
+        if (node.getNodeType() == ComputationNodeType.MULTIPLY && multiplyIdentity(node, left, right)) {
+            return;
+        }
+
+        if (node.getNodeType() == ComputationNodeType.GEMM) {
+            multiplyAccumulate(node, run);
+            return;
+        }
+
+        if (computeSparse(node, left, right, run)) {
+            return;
+        }
+
+        // a TRANSPOSE of a double matrix is already O(1), only float results need the float path
+        if (elementType == ElementType.FLOAT
+                && (node.getNodeType() != ComputationNodeType.TRANSPOSE || left.isSinglePrecision())) {
+            computeFloat(node, left, right, run);
+            return;
+        }
+
+        if (node.getNodeType() == ComputationNodeType.TRANSPOSE) {
+            if (left.isSymmetric()) {
+                // a symmetric matrix is its own transpose
+                node.resolve(left);
+            } else if (left.isResident()) {
+                // O(1): the child's matrix changes hands, only its interpretation flips
+                SharedMatrix matrix = left.takeSharedMatrix();
+                matrix.transpose();
+                node.resolve(matrix);
+            } else {
+                // O(1): the child's storage is reused as-is, only its interpretation flips
+                node.resolve(left.getStoredMatrix(), !left.isTransposed());
+            }
+            return;
+        }
+
+        if (node.getNodeType() == ComputationNodeType.NEGATE && left.isSymmetric()) {
+            // stays packed
+            SymmetricMatrix a = left.getSymmetricMatrix();
+            double[] values = new double[a.packedLength()];
+            runRanges(run, a.packedLength(), 1, (from, to) -> a.negateRange(values, from, to));
+            node.resolve(a.withValues(values));
+            return;
+        }
+
+        if (node.getNodeType() == ComputationNodeType.MULTIPLY && isTransposePair(left, right)) {
+            multiplyGram(node, left, run);
+            return;
+        }
+
+        // resident children hand their matrices over, parsed ones are loaded once
+        SharedMatrix leftMatrix = takeOperand(left);
+        SharedMatrix rightMatrix = right != null ? takeOperand(right) : new SharedMatrix();
+        try {
+            if (node.getNodeType() == ComputationNodeType.MULTIPLY) {
+                if (isBanded(left.getStructure(), leftMatrix) || isBanded(right.getStructure(), rightMatrix)) {
+                    multiplyBanded(node, leftMatrix, left.getStructure(), rightMatrix, right.getStructure(), run);
+                    return;
+                }
+                if (multiplyStrategy == MultiplyStrategy.STRASSEN
+                        && StrassenMultiply.applies(leftMatrix, rightMatrix, strassenCutoff)) {
+                    recordMultiply(MultiplyStrategy.STRASSEN);
+                    multiplyStrassen(node, leftMatrix, rightMatrix, null, 1, 1, run);
+                    return;
+                }
+                if (multiplyStrategy != MultiplyStrategy.ROW_WISE) {
+                    recordMultiply(MultiplyStrategy.TILED);
+                    multiplyTiled(node, leftMatrix, rightMatrix, null, 1, 1, run);
+                    return;
+                }
+                recordMultiply(MultiplyStrategy.ROW_WISE);
+                // the row-wise kernel walks the left operand row by row, so it needs its row layout
+                leftMatrix = alignTo(leftMatrix, VectorOrientation.ROW_MAJOR);
+            } else if (right != null) {
+                if (leftMatrix.rowCount() != rightMatrix.rowCount()
+                        || leftMatrix.columnCount() != rightMatrix.columnCount()) {
+                    throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+                }
+                // element-wise operations work on any layout, as long as both operands share it
+                rightMatrix = alignTo(rightMatrix, leftMatrix.getOrientation());
+            }
 
-        if (node.getChildren().size() > 1) {
-            rightMatrix.loadRowMajor(node.getChildren().get(1).getMatrix());
+            SharedMatrix a = leftMatrix;
+            SharedMatrix b = rightMatrix;
+            if (speculative) {
+                // the batch releases them from now on
+                leftMatrix = new SharedMatrix();
+                rightMatrix = new SharedMatrix();
+                computeSpeculative(node, a, b, run);
+                return;
+            }
+            // chunks sized by the workers' measured throughput, see TiredExecutor.submitRange
+            switch (node.getNodeType()) {
+                case ADD:
+                    runElementwise(run, a, (v, from, to) -> a.get(v).add(b.get(v), from, to));
+                    break;
+                case MULTIPLY:
+                    // each row is replaced in place by its product, so rows are the smallest unit here
+                    runRanges(run, a.length(), (long) b.rowCount() * b.columnCount(), (from, to) -> {
+                        for (int r = from; r < to; r++) {
+                            run.token.checkpoint();
+                            a.get(r).vecMatMul(b, pool);
+                        }
+                    });
+                    break;
+                case NEGATE:
+                    runElementwise(run, a, (v, from, to) -> a.get(v).negate(from, to));
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unsupported operation: " + node.getNodeType());
+            }
+            // the left operand was updated in place, it becomes the result as it is
+            node.resolve(a);
+            leftMatrix = new SharedMatrix();
+        } finally {
+            leftMatrix.release();
+            rightMatrix.release();
         }
 
-        List<Runnable> tasks;
+    }
 
+    // structure of a node's value, from the structures of its (resolved) children
+    private static MatrixStructure resultStructure(ComputationNode node) {
+        List<ComputationNode> children = node.getChildren();
         switch (node.getNodeType()) {
+            case TRANSPOSE:
+                return children.get(0).getStructure().transpose();
+            case NEGATE:
+                return children.get(0).getStructure().negate();
             case ADD:
-                tasks = createAddTasks();
-                break;
+                return children.get(0).getStructure().add(children.get(1).getStructure());
             case MULTIPLY:
-                tasks = createMultiplyTasks();
+                return children.get(0).getStructure().multiply(children.get(1).getStructure());
+            case GEMM:
+                return children.get(0).getStructure().multiply(children.get(1).getStructure())
+                        .add(children.get(2).getStructure());
+            default:
+                return MatrixStructure.GENERAL;
+        }
+    }
+
+    // I * B = B and A * I = A, whatever form the other operand is held in, narrowed like any other
+    // dense result in FLOAT mode
+    private boolean multiplyIdentity(ComputationNode node, ComputationNode left, ComputationNode right) {
+        ComputationNode identity;
+        ComputationNode other;
+        if (left.getStructure().isIdentity()) {
+            identity = left;
+            other = right;
+        } else if (right.getStructure().isIdentity()) {
+            identity = right;
+            other = left;
+        } else {
+            return false;
+        }
+        if (left.columnCount() != right.rowCount()) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        if (identity.isResident()) {
+            // nothing reads the identity, its storage goes back to the pool
+            identity.takeSharedMatrix().release();
+        }
+        if (elementType == ElementType.FLOAT && !other.isSparse()) {
+            node.resolve(toFloat(other));
+        } else {
+            node.resolve(other);
+        }
+        return true;
+    }
+
+    private static boolean isBanded(MatrixStructure structure, SharedMatrix matrix) {
+        return !structure.isGeneral() && structure.isBanded(matrix.rowCount(), matrix.columnCount());
+    }
+
+    /**
+     * A * B with diagonal, triangular or banded operands: only the bands are read and multiplied.
+     * Not counted in the multiply algorithm statistics, which cover the general kernels.
+     */
+    private void multiplyBanded(ComputationNode node, SharedMatrix leftMatrix, MatrixStructure leftStructure,
+                                SharedMatrix rightMatrix, MatrixStructure rightStructure, RunContext run) {
+        BandedMultiply product = new BandedMultiply(leftMatrix, leftStructure, rightMatrix, rightStructure, pool);
+        product.open();
+        try {
+            runRanges(run, product.rowCount(), rightMatrix.columnCount(), product::multiplyRows);
+        } finally {
+            product.close();
+        }
+        node.resolve(product.result());
+    }
+
+    /**
+     * True if right holds the transpose of left, as for A * A^T or A^T * A. Both operands must be
+     * parsed (or transposed parsed) matrices: either the same storage read both ways,
+     * or equal contents, which costs one pass and usually stops at the first element.
+     */
+    private static boolean isTransposePair(ComputationNode left, ComputationNode right) {
+        if (!isPlainDense(left) || !isPlainDense(right)
+                || left.rowCount() != right.columnCount() || left.columnCount() != right.rowCount()) {
+            return false;
+        }
+        double[][] l = left.getStoredMatrix();
+        double[][] r = right.getStoredMatrix();
+        boolean lt = left.isTransposed();
+        boolean rt = right.isTransposed();
+        if (l == r) {
+            return lt != rt;
+        }
+        int rows = left.rowCount();
+        int cols = left.columnCount();
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                // left(i, j) against right(j, i)
+                double x = lt ? l[j][i] : l[i][j];
+                double y = rt ? r[i][j] : r[j][i];
+                if (x != y) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPlainDense(ComputationNode node) {
+        return !node.isResident() && !node.isSparse() && !node.isSinglePrecision() && !node.isSymmetric();
+    }
+
+    /**
+     * A * A^T: only the upper triangle is computed, and the result stays packed until a consumer
+     * needs a full layout. Not counted in the multiply algorithm statistics.
+     */
+    private void multiplyGram(ComputationNode node, ComputationNode left, RunContext run) {
+        SharedMatrix leftMatrix = takeOperand(left);
+        try {
+            SymmetricMultiply product = new SymmetricMultiply(leftMatrix, pool);
+            product.open();
+            try {
+                runRanges(run, product.pairCount(),
+                        (long) (leftMatrix.rowCount() + 1) * leftMatrix.columnCount(), product::multiplyPairs);
+            } finally {
+                product.close();
+            }
+            node.resolve(product.result());
+        } finally {
+            leftMatrix.release();
+        }
+    }
+
+    /**
+     * alpha * A * B + beta * C. Dense double operands run through the fused tiled or Strassen kernels,
+     * which start from beta * C and accumulate the product onto it. ROW_WISE has no fused form
+     * and uses the tiled kernel here. Sparse operands and FLOAT mode run MULTIPLY and ADD one after the other.
+     */
+    private void multiplyAccumulate(ComputationNode node, RunContext run) {
+        ComputationNode a = node.getChildren().get(0);
+        ComputationNode b = node.getChildren().get(1);
+        ComputationNode c = node.getChildren().get(2);
+        if (elementType != ElementType.DOUBLE || a.isSparse() || b.isSparse() || c.isSparse()) {
+            computeUnfused(node, a, b, c, run);
+            return;
+        }
+
+        SharedMatrix leftMatrix = takeOperand(a);
+        SharedMatrix rightMatrix = takeOperand(b);
+        SharedMatrix addend = takeOperand(c);
+        try {
+            if (multiplyStrategy == MultiplyStrategy.STRASSEN
+                    && StrassenMultiply.applies(leftMatrix, rightMatrix, strassenCutoff)) {
+                recordMultiply(MultiplyStrategy.STRASSEN);
+                multiplyStrassen(node, leftMatrix, rightMatrix, addend, node.getAlpha(), node.getBeta(), run);
+            } else {
+                recordMultiply(MultiplyStrategy.TILED);
+                multiplyTiled(node, leftMatrix, rightMatrix, addend, node.getAlpha(), node.getBeta(), run);
+            }
+        } finally {
+            addend.release();
+            leftMatrix.release();
+            rightMatrix.release();
+        }
+    }
+
+    // GEMM as separate nodes, for operand forms the fused kernels do not read
+    private void computeUnfused(ComputationNode node, ComputationNode a, ComputationNode b, ComputationNode c,
+                                RunContext run) {
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, new ArrayList<>(List.of(a, b)));
+        loadAndCompute(product, run);
+        ComputationNode sum = new ComputationNode(ComputationNodeType.ADD,
+                new ArrayList<>(List.of(scaled(product, node.getAlpha(), run), scaled(c, node.getBeta(), run))));
+        loadAndCompute(sum, run);
+        node.resolve(sum);
+    }
+
+    // factor * value of a resolved node, as a resolved node
+    private ComputationNode scaled(ComputationNode value, double factor, RunContext run) {
+        if (factor == 1) {
+            return value;
+        }
+        if (factor == -1) {
+            ComputationNode negated = new ComputationNode(ComputationNodeType.NEGATE, new ArrayList<>(List.of(value)));
+            loadAndCompute(negated, run);
+            return negated;
+        }
+        // other factors have no kernel of their own, scale a dense copy
+        double[][] m = value.getMatrix();
+        double[][] result = new double[m.length][];
+        for (int i = 0; i < m.length; i++) {
+            result[i] = new double[m[i].length];
+            for (int j = 0; j < m[i].length; j++) {
+                result[i][j] = factor * m[i][j];
+            }
+        }
+        return new ComputationNode(result);
+    }
+
+    // the operand matrix of a resolved child, owned by the caller from now on
+    private SharedMatrix takeOperand(ComputationNode source) {
+        if (source.isResident()) {
+            return source.takeSharedMatrix();
+        }
+        if (source.isSymmetric()) {
+            return source.getSymmetricMatrix().toShared(pool);
+        }
+        SharedMatrix matrix = new SharedMatrix();
+        matrix.loadRowMajor(source.getStoredMatrix(), pool);
+        if (source.isTransposed()) {
+            matrix.transpose();
+        }
+        return matrix;
+    }
+
+    // matrix with its vectors in the given orientation, copied only if its layout differs
+    private SharedMatrix alignTo(SharedMatrix matrix, VectorOrientation orientation) {
+        if (matrix.length() == 0 || matrix.getOrientation() == orientation) {
+            return matrix;
+        }
+        double[][] data = matrix.readRowMajor();
+        matrix.release();
+        SharedMatrix aligned = new SharedMatrix();
+        if (orientation == VectorOrientation.ROW_MAJOR) {
+            aligned.loadRowMajor(data, pool);
+        } else {
+            aligned.loadColumnMajor(data);
+        }
+        return aligned;
+    }
+
+    /**
+     * Runs node with the sparse kernels if it has a sparse operand they cover.
+     * Returns false when the dense path must run instead (a sparse operand is then densified on load).
+     */
+    private boolean computeSparse(ComputationNode node, ComputationNode left, ComputationNode right, RunContext run) {
+        boolean leftSparse = left.isSparse();
+        boolean rightSparse = right != null && right.isSparse();
+        if (!leftSparse && !rightSparse) {
+            return false;
+        }
+
+        switch (node.getNodeType()) {
+            case TRANSPOSE:
+                // CSR of A is CSC of A^T
+                node.resolve(left.getSparseMatrix().transpose());
+                return true;
+            case NEGATE: {
+                SparseMatrix a = left.getSparseMatrix();
+                double[] values = new double[a.nonZeros()];
+                runRanges(run, a.majorCount(),
+                        TaskGranularity.perUnit(a.nonZeros(), a.majorCount()), (from, to) -> a.negateRange(values, from, to));
+                node.resolve(a.withValues(values));
+                return true;
+            }
+            case ADD: {
+                // sparse + dense is dense anyway, leave it to the dense kernels
+                if (!leftSparse || !rightSparse) {
+                    return false;
+                }
+                SparseMatrix a = left.getSparseMatrix();
+                SparseMatrix b = right.getSparseMatrix().toOrientation(a.getOrientation());
+                if (a.rowCount() != b.rowCount() || a.columnCount() != b.columnCount()) {
+                    throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+                }
+                SparseMatrix.Builder sum = new SparseMatrix.Builder(a.rowCount(), a.columnCount(), a.getOrientation());
+                runRanges(run, a.majorCount(),
+                        TaskGranularity.perUnit((long) a.nonZeros() + b.nonZeros(), a.majorCount()),
+                        (from, to) -> a.addRange(b, sum, from, to));
+                node.resolve(sum.build());
+                return true;
+            }
+            case MULTIPLY:
+                multiplySparse(node, left, right, run);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // sparse x sparse stays sparse, a product with a dense operand is dense
+    private void multiplySparse(ComputationNode node, ComputationNode left, ComputationNode right, RunContext run) {
+        if (left.isSparse() && right.isSparse()) {
+            SparseMatrix a = left.getSparseMatrix().toOrientation(VectorOrientation.ROW_MAJOR);
+            SparseMatrix b = right.getSparseMatrix().toOrientation(VectorOrientation.ROW_MAJOR);
+            if (a.columnCount() != b.rowCount()) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+            SparseMatrix.Builder product = new SparseMatrix.Builder(a.rowCount(), b.columnCount(), VectorOrientation.ROW_MAJOR);
+            runRanges(run, a.rowCount(),
+                    TaskGranularity.perUnit(a.nonZeros(), a.rowCount()) * TaskGranularity.perUnit(b.nonZeros(), b.rowCount()),
+                    (from, to) -> a.multiplySparseRange(b, product, from, to));
+            node.resolve(product.build());
+        } else if (left.isSparse()) {
+            SparseMatrix a = left.getSparseMatrix().toOrientation(VectorOrientation.ROW_MAJOR);
+            double[][] b = right.getMatrix();
+            if (a.columnCount() != b.length) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+            double[][] product = new double[a.rowCount()][b[0].length];
+            runRanges(run, a.rowCount(),
+                    TaskGranularity.perUnit(a.nonZeros(), a.rowCount()) * b[0].length,
+                    (from, to) -> a.multiplyDenseRange(b, product, from, to));
+            node.resolve(product);
+        } else {
+            double[][] a = left.getMatrix();
+            SparseMatrix b = right.getSparseMatrix().toOrientation(VectorOrientation.ROW_MAJOR);
+            if (a[0].length != b.rowCount()) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+            double[][] product = new double[a.length][b.columnCount()];
+            runRanges(run, a.length,
+                    a[0].length * TaskGranularity.perUnit(b.nonZeros(), b.rowCount()),
+                    (from, to) -> SparseMatrix.multiplyDenseRange(a, b, product, from, to));
+            node.resolve(product);
+        }
+    }
+
+    // single-precision counterpart of the dense paths, results stay float until getMatrix()
+    private void computeFloat(ComputationNode node, ComputationNode left, ComputationNode right, RunContext run) {
+        FloatMatrix a = toFloat(left);
+
+        switch (node.getNodeType()) {
+            case TRANSPOSE:
+                node.resolve(a.transpose());
                 break;
-            case NEGATE:
-                tasks = createNegateTasks();
+            case NEGATE: {
+                FloatMatrix result = a.blankLike();
+                runRanges(run, a.storedRows(),
+                        TaskGranularity.perUnit((long) a.rowCount() * a.columnCount(), a.storedRows()),
+                        (from, to) -> a.negateRange(result, from, to));
+                node.resolve(result);
                 break;
-            case TRANSPOSE:
-                tasks = createTransposeTasks();
+            }
+            case ADD: {
+                FloatMatrix b = toFloat(right);
+                if (a.rowCount() != b.rowCount() || a.columnCount() != b.columnCount()) {
+                    throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+                }
+                // element-wise over the storage, so both operands need the same layout
+                FloatMatrix x = a.isTransposed() == b.isTransposed() ? a : a.materialize();
+                FloatMatrix y = a.isTransposed() == b.isTransposed() ? b : b.materialize();
+                FloatMatrix result = x.blankLike();
+                runRanges(run, x.storedRows(),
+                        TaskGranularity.perUnit((long) x.rowCount() * x.columnCount(), x.storedRows()),
+                        (from, to) -> x.addRange(y, result, from, to));
+                node.resolve(result);
                 break;
+            }
+            case MULTIPLY: {
+                FloatMatrix b = toFloat(right).materialize();
+                if (a.columnCount() != b.rowCount()) {
+                    throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+                }
+                FloatMatrix result = FloatMatrix.zeros(a.rowCount(), b.columnCount());
+                runRanges(run, a.rowCount(), (long) a.columnCount() * b.columnCount(),
+                        (from, to) -> a.multiplyRange(b, result, from, to));
+                node.resolve(result);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unsupported operation: " + node.getNodeType());
         }
+    }
 
-        if (tasks != null && !tasks.isEmpty()) {
-            executor.submitAll(tasks);
-            node.resolve(leftMatrix.readRowMajor());
+    // the node's value in single precision, narrowing a double matrix without materializing its transpose
+    private static FloatMatrix toFloat(ComputationNode node) {
+        if (node.isSinglePrecision()) {
+            return node.getFloatMatrix();
         }
-
+        FloatMatrix stored = FloatMatrix.fromDense(node.getStoredMatrix());
+        return node.isTransposed() ? stored.transpose() : stored;
     }
 
-    public List<Runnable> createAddTasks() {
-        List<Runnable> tasks = new java.util.ArrayList<>();
-        int rows = rightMatrix.length();
+    // runs work over [0, count) in chunks sized by each worker's measured throughput, see TiredExecutor.submitRange
+    private void runRanges(RunContext run, int count, long unitCost, RangeTask work) {
+        long cost = Math.max(1, unitCost);
+        executor.submitRange(count, cost, TaskGranularity.minChunk(cost), work, run.token);
+    }
 
-        for (int i = 0; i < rows; i++) {
-            final int r = i;
+    @FunctionalInterface
+    private interface TileTask {
+        void run(int vector, int from, int to);
+    }
 
-            tasks.add(() -> {
-                try {
-                    leftMatrix.get(r).add(rightMatrix.get(r));
-                } catch (Exception ex) {
-                    throw new IllegalArgumentException(ex);
+    // runs work over the vectors x elements of matrix as one range of elements, so wide and tall
+    // matrices split alike; a chunk may span several vectors
+    private void runElementwise(RunContext run, SharedMatrix matrix, TileTask work) {
+        int vectors = matrix.length();
+        int length = vectors == 0 ? 0 : matrix.get(0).length();
+        long elements = (long) vectors * length;
+        if (elements > Integer.MAX_VALUE) {
+            runRanges(run, vectors, length, (from, to) -> {
+                for (int v = from; v < to; v++) {
+                    work.run(v, 0, length);
                 }
             });
+            return;
         }
+        runRanges(run, (int) elements, 1, (from, to) -> {
+            for (int v = from / length; (long) v * length < to; v++) {
+                int offset = v * length;
+                work.run(v, Math.max(from, offset) - offset, Math.min(to, offset + length) - offset);
+            }
+        });
+    }
 
-        return tasks;
+    @FunctionalInterface
+    private interface TileCompute {
+        double[] compute(int vector, int from, int to);
     }
 
-    public List<Runnable> createMultiplyTasks() {
-        List<Runnable> tasks = new java.util.ArrayList<>();
-        int rows = leftMatrix.length();
+    @FunctionalInterface
+    private interface TileCommit {
+        void commit(int vector, int from, double[] values);
+    }
 
-        for (int i = 0; i < rows; i++) {
-            final int r = i;
+    /**
+     * ADD, NEGATE and row-wise MULTIPLY of the operands as a speculative batch, see
+     * TiredExecutor.submitSpeculative. The result goes to a fresh matrix, and the operands, which
+     * a losing attempt may still be reading, go back to the pool only once every attempt has ended.
+     */
+    private void computeSpeculative(ComputationNode node, SharedMatrix a, SharedMatrix b, RunContext run) {
+        boolean transposed = a.getOrientation() == VectorOrientation.COLUMN_MAJOR;
+        double[][] result = new double[a.length()][];
+        executor.submitSpeculative(createSpeculativeTasks(node.getNodeType(), a, b, result), run.token, () -> {
+            a.release();
+            b.release();
+        });
+        // result holds the vectors of a's layout; packed into pooled storage, it stays resident like
+        // the other dense results
+        SharedMatrix matrix = new SharedMatrix();
+        matrix.loadRowMajor(result, pool);
+        if (transposed) {
+            matrix.transpose();
+        }
+        node.resolve(matrix);
+    }
 
-            tasks.add(() -> {
-                try {
-                    leftMatrix.get(r).vecMatMul(rightMatrix);
-                } catch (Exception ex) {
-                    throw new IllegalArgumentException(ex);
+    /**
+     * ADD, NEGATE and row-wise MULTIPLY as a fixed list of tasks in compute-then-commit form, since a
+     * speculative batch needs tasks it can run twice: every tile is computed from a and b into fresh
+     * arrays, and only copied into result's vectors on commit, so a duplicate attempt never writes
+     * anything it shares. The tiles are sized up front by TaskGranularity.
+     */
+    private List<SpeculativeTask<?>> createSpeculativeTasks(ComputationNodeType type, SharedMatrix a, SharedMatrix b,
+                                                            double[][] result) {
+        List<SpeculativeTask<?>> tasks = new ArrayList<>();
+        int vectors = a.length();
+        switch (type) {
+            case ADD:
+            case NEGATE: {
+                int length = vectors == 0 ? 0 : a.get(0).length();
+                for (int v = 0; v < vectors; v++) {
+                    result[v] = new double[length];
                 }
-            });
+                TileCompute compute = type == ComputationNodeType.ADD
+                        ? (v, from, to) -> {
+                            double[] values = a.get(v).read(from, to);
+                            double[] other = b.get(v).read(from, to);
+                            Kernels.ADD.apply(values, 0, 1, other, 0, 1, values.length);
+                            return values;
+                        }
+                        : (v, from, to) -> {
+                            double[] values = a.get(v).read(from, to);
+                            Kernels.NEGATE.apply(values, 0, 1, values.length);
+                            return values;
+                        };
+                int[] blocks = TaskGranularity.tiles(vectors, length, 1, numThreads);
+                for (int vb = 0; vb < blocks[0]; vb++) {
+                    for (int eb = 0; eb < blocks[1]; eb++) {
+                        tasks.add(speculativeTile(TaskGranularity.bound(vectors, vb, blocks[0]),
+                                TaskGranularity.bound(vectors, vb + 1, blocks[0]),
+                                TaskGranularity.bound(length, eb, blocks[1]),
+                                TaskGranularity.bound(length, eb + 1, blocks[1]),
+                                compute, (v, from, values) -> System.arraycopy(values, 0, result[v], from, values.length)));
+                    }
+                }
+                break;
+            }
+            case MULTIPLY: {
+                long rowCost = (long) b.rowCount() * b.columnCount();
+                int chunks = TaskGranularity.rangeCount(vectors, rowCost, numThreads);
+                for (int c = 0; c < chunks; c++) {
+                    // whole rows: a row's product is the result's row
+                    tasks.add(speculativeTile(TaskGranularity.bound(vectors, c, chunks),
+                            TaskGranularity.bound(vectors, c + 1, chunks), 0, 0,
+                            (v, from, to) -> a.get(v).product(b), (v, from, values) -> result[v] = values));
+                }
+                break;
+            }
+            default:
+                throw new UnsupportedOperationException("Unsupported operation: " + type);
         }
-
         return tasks;
     }
 
-    public List<Runnable> createNegateTasks() {
-        List<Runnable> tasks = new java.util.ArrayList<>();
-        int rows = leftMatrix.length();
+    // elements [from, to) of vectors [vFrom, vTo)
+    private static SpeculativeTask<double[][]> speculativeTile(int vFrom, int vTo, int from, int to,
+                                                               TileCompute compute, TileCommit commit) {
+        return new SpeculativeTask<double[][]>() {
+            @Override
+            public double[][] compute() {
+                double[][] values = new double[vTo - vFrom][];
+                for (int v = vFrom; v < vTo; v++) {
+                    values[v - vFrom] = compute.compute(v, from, to);
+                }
+                return values;
+            }
 
-        for (int i = 0; i < rows; i++) {
-            final int r = i;
+            @Override
+            public void commit(double[][] values) {
+                for (int v = vFrom; v < vTo; v++) {
+                    commit.commit(v, from, values[v - vFrom]);
+                }
+            }
+        };
+    }
 
-            tasks.add(() -> {
-                try {
-                    leftMatrix.get(r).negate();
-                } catch (Exception ex) {
-                    throw new IllegalArgumentException(ex);
+    // computes leftMatrix * rightMatrix (alpha * leftMatrix * rightMatrix + beta * addend if addend is set)
+    // tile by tile into a new matrix
+    private void multiplyTiled(ComputationNode node, SharedMatrix leftMatrix, SharedMatrix rightMatrix,
+                               SharedMatrix addend, double alpha, double beta, RunContext run) {
+        BlockedMultiply product = new BlockedMultiply(leftMatrix, rightMatrix, pool);
+        if (addend != null) {
+            product.accumulate(addend, alpha, beta);
+        }
+        product.open();
+        try {
+            int colTiles = product.colTiles();
+            int tiles = product.rowTiles() * colTiles;
+            long tileCost = Math.max(1, (long) leftMatrix.rowCount() * rightMatrix.columnCount()
+                    * leftMatrix.columnCount() / Math.max(1, tiles));
+            runRanges(run, tiles, tileCost, (from, to) -> {
+                for (int t = from; t < to; t++) {
+                    product.multiplyTile(t / colTiles, t % colTiles);
                 }
             });
+        } finally {
+            product.close();
         }
+        node.resolve(product.result());
+    }
 
-        return tasks;
+    // computes leftMatrix * rightMatrix with the seven Strassen sub-products running in parallel
+    private void multiplyStrassen(ComputationNode node, SharedMatrix leftMatrix, SharedMatrix rightMatrix,
+                                  SharedMatrix addend, double alpha, double beta, RunContext run) {
+        StrassenMultiply product = new StrassenMultiply(leftMatrix, rightMatrix, strassenCutoff, pool);
+        if (addend != null) {
+            product.accumulate(addend, alpha, beta);
+        }
+        product.open();
+        executor.submitAll(createStrassenTasks(product), run.token);
+        product.combine();
+        node.resolve(product.result());
     }
 
-    public List<Runnable> createTransposeTasks() {
-        List<Runnable> tasks = new java.util.LinkedList<>();
-        for (int i = 0; i < leftMatrix.length(); i++) {
-            SharedVector vLeft = leftMatrix.get(i);
-            tasks.add(() -> vLeft.transpose());
+    public List<Runnable> createStrassenTasks(StrassenMultiply product) {
+        List<Runnable> tasks = new ArrayList<>();
+
+        for (int i = 0; i < StrassenMultiply.PRODUCTS; i++) {
+            final int p = i;
+
+            tasks.add(() -> product.product(p));
         }
+
         return tasks;
     }
 
+    private synchronized void recordMultiply(MultiplyStrategy algorithm) {
+        multiplyCounts.merge(algorithm, 1, Integer::sum);
+        lastMultiplyAlgorithm = algorithm;
+    }
+
+    /**
+     * The algorithm that ran for the most recent MULTIPLY node, or null if none ran yet.
+     * With STRASSEN selected this is TILED whenever the operands did not qualify.
+     */
+    public synchronized MultiplyStrategy getLastMultiplyAlgorithm() {
+        return lastMultiplyAlgorithm;
+    }
+
+    /**
+     * The most nodes that were ready or being evaluated at the same time in a run so far.
+     */
+    public int getPeakNodeConcurrency() {
+        return peakNodeConcurrency.get();
+    }
+
     public String getWorkerReport() {
-        return executor.getWorkerReport();
+        StringBuilder report = new StringBuilder(executor.getWorkerReport());
+        report.append("Scheduler | ").append(executor.getMode())
+                .append(' ').append(executor.getWaitStrategy()).append('\n');
+        ExecutorMetrics metrics = executor.getMetrics();
+        report.append("Metrics | tasks=").append(metrics.getTasksCompleted())
+                .append(" queueWait(ns) p50=").append(metrics.getQueueWaitP50())
+                .append(" p99=").append(metrics.getQueueWaitP99())
+                .append(" run(ns) p50=").append(metrics.getRunTimeP50())
+                .append(" p99=").append(metrics.getRunTimeP99())
+                .append(" batches=").append(metrics.getBatches())
+                .append(String.format(" efficiency=%.2f idle=%.2f", metrics.getBatchEfficiency(), metrics.getIdleRatio()))
+                .append('\n');
+        report.append("Kernel backend | ").append(Kernels.backend()).append('\n');
+        report.append("Buffer pool | ").append(pool.stats()).append('\n');
+        report.append("Node evaluation | peak parallel=").append(peakNodeConcurrency.get()).append('\n');
+        synchronized (this) {
+            if (!multiplyCounts.isEmpty()) {
+                report.append("Multiply algorithms | ").append(multiplyCounts).append('\n');
+            }
+        }
+        return report.toString();
     }
     public void shutdown() throws InterruptedException {
         if (executor != null) {
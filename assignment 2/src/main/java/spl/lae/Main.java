@@ -1,12 +1,14 @@
 package spl.lae;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
+import memory.ElementType;
 import parser.*;
 
 public class Main {
     public static void main(String[] args) throws IOException {
-        if (args.length != 3) {
-            System.err.println("Usage: <numThreads> <input.json> <output.json>");
+        if (args.length != 3 && args.length != 4) {
+            System.err.println("Usage: <numThreads> <input.json> <output.json> [double|float]");
             return;
         }
 
@@ -22,6 +24,16 @@ public class Main {
         String inFile = args[1];
         String outFile = args[2];
 
+        ElementType elementType = ElementType.DOUBLE;
+        if (args.length == 4) {
+            try {
+                elementType = ElementType.valueOf(args[3].toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                OutputWriter.write("Invalid element type: " + args[3], outFile);
+                return;
+            }
+        }
+
         LinearAlgebraEngine eng = null;
         long t0 = System.nanoTime();
 
@@ -30,8 +42,11 @@ public class Main {
 
             ComputationNode root = p.parse(inFile);
 
-            eng = new LinearAlgebraEngine(threads);
-            ComputationNode ans = eng.run(root);
+            eng = new LinearAlgebraEngine(threads, elementType);
+            // -Dlae.timeoutMillis bounds the computation
+            Long timeout = Long.getLong("lae.timeoutMillis");
+            ComputationNode ans = timeout == null ? eng.run(root)
+                    : eng.run(root, timeout, TimeUnit.MILLISECONDS);
 
             OutputWriter.write(ans.getMatrix(), outFile);
 
@@ -0,0 +1,15 @@
+package spl.lae;
+
+/**
+ * How a LinearAlgebraEngine computes MULTIPLY nodes.
+ * ROW_WISE replaces each row of the left operand by its product with the whole right operand, in ranges
+ * of rows sized by the workers' measured throughput (see scheduling.TiredExecutor.submitRange).
+ * TILED splits the output into cache-sized tiles over packed panels of the right operand (see memory.BlockedMultiply).
+ * STRASSEN runs large square products through memory.StrassenMultiply, and falls back to TILED
+ * for operands that are not square or not above the engine's Strassen cutoff.
+ */
+public enum MultiplyStrategy {
+    ROW_WISE,
+    TILED,
+    STRASSEN
+}
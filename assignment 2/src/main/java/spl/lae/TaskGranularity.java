@@ -0,0 +1,74 @@
+package spl.lae;
+
+/**
+ * Cost model behind the engine's task decomposition. A task should carry at least MIN_TASK_COST
+ * element operations, well above the cost of scheduling it, and there is no point in more than
+ * TASKS_PER_WORKER tasks per worker: a few per worker are enough to even out uneven progress.
+ * So a small operation runs as a single task and a large one as TASKS_PER_WORKER * workers tasks
+ * of about the same cost, whatever the shape of the matrices.
+ */
+final class TaskGranularity {
+
+    static final long MIN_TASK_COST = 1 << 13;
+    static final int TASKS_PER_WORKER = 4;
+
+    private TaskGranularity() {
+    }
+
+    /**
+     * Number of tasks for an operation of the given total cost.
+     */
+    static int taskCount(long totalCost, int workers) {
+        long tasks = totalCost / MIN_TASK_COST;
+        return (int) Math.max(1, Math.min(tasks, (long) workers * TASKS_PER_WORKER));
+    }
+
+    /**
+     * Number of tasks for count independent units of unitCost each: never more than count,
+     * since a unit cannot be split.
+     */
+    static int rangeCount(int count, long unitCost, int workers) {
+        return Math.max(1, Math.min(count, taskCount(saturatedCost(count, unitCost), workers)));
+    }
+
+    /**
+     * Block counts {outer, inner} for a rows x cols iteration space of unitCost per element, for
+     * operations that can split both ways: row batches first, and once there are more tasks than rows,
+     * each row batch is also cut into column blocks (2D tiles). A 2 x 100000 matrix thus still
+     * gets one tile per task, and a 100000 x 4 one gets a few row batches instead of 100000 tasks.
+     */
+    static int[] tiles(int rows, int cols, long unitCost, int workers) {
+        int tasks = taskCount(saturatedCost(saturatedCost(rows, cols), unitCost), workers);
+        int rowBlocks = Math.max(1, Math.min(rows, tasks));
+        int colBlocks = Math.max(1, Math.min(cols, (tasks + rowBlocks - 1) / rowBlocks));
+        return new int[]{rowBlocks, colBlocks};
+    }
+
+    /**
+     * Smallest number of units of unitCost worth a task of their own.
+     */
+    static int minChunk(long unitCost) {
+        return unitCost >= MIN_TASK_COST ? 1 : (int) ((MIN_TASK_COST + unitCost - 1) / Math.max(1, unitCost));
+    }
+
+    /**
+     * Start of block b out of blocks equal blocks of [0, count).
+     */
+    static int bound(int count, int b, int blocks) {
+        return (int) ((long) count * b / blocks);
+    }
+
+    /**
+     * Average cost of one of count units sharing totalCost, at least 1.
+     */
+    static long perUnit(long totalCost, int count) {
+        return count <= 0 ? 1 : Math.max(1, (totalCost + count - 1) / count);
+    }
+
+    private static long saturatedCost(long x, long y) {
+        if (x <= 0 || y <= 0) {
+            return 0;
+        }
+        return x > Long.MAX_VALUE / y ? Long.MAX_VALUE : x * y;
+    }
+}
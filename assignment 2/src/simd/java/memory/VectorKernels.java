@@ -0,0 +1,100 @@
+package memory;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels written against the JDK Vector API (jdk.incubator.vector).
+ * Only compiled by the "simd" Maven profile, and only picked up by Kernels when the module
+ * is present at runtime. Each kernel processes SPECIES.length() doubles per instruction
+ * on the stride-1 case and hands strided views to the scalar kernels.
+ */
+final class VectorKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    static final Kernels.Binary ADD = VectorKernels::add;
+    static final Kernels.Unary NEGATE = VectorKernels::negate;
+    static final Kernels.Reduction DOT = VectorKernels::dot;
+    static final Kernels.Scaled AXPY = VectorKernels::axpy;
+
+    private VectorKernels() {
+    }
+
+    static String describe() {
+        return "simd (" + SPECIES.vectorBitSize() + " bit)";
+    }
+
+    private static void add(double[] dst, int dstOffset, int dstStride,
+                            double[] src, int srcOffset, int srcStride, int length) {
+        if (dstStride != 1 || srcStride != 1) {
+            Kernels.SCALAR_ADD.apply(dst, dstOffset, dstStride, src, srcOffset, srcStride, length);
+            return;
+        }
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, dst, dstOffset + i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, src, srcOffset + i);
+            a.add(b).intoArray(dst, dstOffset + i);
+        }
+        for (; i < length; i++) {
+            dst[dstOffset + i] += src[srcOffset + i];
+        }
+    }
+
+    private static void negate(double[] data, int offset, int stride, int length) {
+        if (stride != 1) {
+            Kernels.SCALAR_NEGATE.apply(data, offset, stride, length);
+            return;
+        }
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, data, offset + i).neg().intoArray(data, offset + i);
+        }
+        for (; i < length; i++) {
+            data[offset + i] = -data[offset + i];
+        }
+    }
+
+    private static double dot(double[] a, int aOffset, int aStride,
+                              double[] b, int bOffset, int bStride, int length) {
+        if (aStride != 1 || bStride != 1) {
+            return Kernels.SCALAR_DOT.apply(a, aOffset, aStride, b, bOffset, bStride, length);
+        }
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector y = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            sum = x.fma(y, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    private static void axpy(double alpha, double[] src, int srcOffset, int srcStride,
+                             double[] dst, int dstOffset, int dstStride, int length) {
+        if (srcStride != 1 || dstStride != 1) {
+            Kernels.SCALAR_AXPY.apply(alpha, src, srcOffset, srcStride, dst, dstOffset, dstStride, length);
+            return;
+        }
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        DoubleVector scale = DoubleVector.broadcast(SPECIES, alpha);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, src, srcOffset + i);
+            DoubleVector y = DoubleVector.fromArray(SPECIES, dst, dstOffset + i);
+            x.fma(scale, y).intoArray(dst, dstOffset + i);
+        }
+        for (; i < length; i++) {
+            dst[dstOffset + i] += alpha * src[srcOffset + i];
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolTest {
+
+    @Test
+    void testBuffersAreBucketedAndReused() {
+        BufferPool pool = new BufferPool();
+
+        double[] a = pool.acquire(100);
+        assertEquals(128, a.length);
+        pool.release(a);
+
+        // any length of the same size class gets the same buffer back
+        double[] b = pool.acquire(65);
+        assertSame(a, b);
+        assertEquals(2, pool.getAcquired());
+        assertEquals(1, pool.getReused());
+        assertEquals(1, pool.getAllocated());
+    }
+
+    @Test
+    void testSmallAndForeignBuffersAreNotRetained() {
+        BufferPool pool = new BufferPool();
+
+        assertEquals(10, pool.acquire(10).length);
+        pool.release(new double[100]);
+        pool.release(new double[32]);
+
+        assertEquals(0, pool.getRetained());
+    }
+
+    @Test
+    void testRetentionLimit() {
+        BufferPool pool = new BufferPool(256);
+
+        pool.release(pool.acquire(256));
+        pool.release(pool.acquire(200)); // reuses the retained buffer
+        double[] first = pool.acquire(256);
+        double[] second = pool.acquire(256);
+        pool.release(first);
+        pool.release(second); // over the limit
+
+        assertEquals(256, pool.getRetained());
+    }
+
+    @Test
+    void testAcquireZeroed() {
+        BufferPool pool = new BufferPool();
+        double[] dirty = pool.acquire(64);
+        Arrays.fill(dirty, 7);
+        pool.release(dirty);
+
+        double[] clean = pool.acquireZeroed(64);
+        assertSame(dirty, clean);
+        for (double x : clean) {
+            assertEquals(0, x);
+        }
+    }
+
+    @Test
+    void testMatrixReturnsStorageOnReloadAndRelease() {
+        BufferPool pool = new BufferPool();
+        double[][] data = new double[10][10];
+        data[3][4] = 5;
+        SharedMatrix m = new SharedMatrix();
+
+        m.loadRowMajor(data, pool);
+        assertEquals(5, m.get(3).get(4));
+        // the new storage is taken before the old one is handed back
+        m.loadRowMajor(data, pool);
+        assertEquals(128, pool.getRetained());
+        m.loadRowMajor(data, pool);
+        assertEquals(1, pool.getReused());
+        assertEquals(5, m.readRowMajor()[3][4]);
+
+        m.release();
+        assertEquals(0, m.length());
+        assertEquals(256, pool.getRetained());
+    }
+}
@@ -0,0 +1,69 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FloatMatrixTest {
+
+    @Test
+    void testRoundTripAndTranspose() {
+        double[][] a = {{1, 2, 3}, {4, 5, 6}};
+        FloatMatrix m = FloatMatrix.fromDense(a);
+
+        assertMatrixEquals(a, m.readRowMajor());
+
+        FloatMatrix t = m.transpose();
+        assertEquals(3, t.rowCount());
+        assertEquals(2, t.columnCount());
+        assertTrue(t.isTransposed());
+        assertMatrixEquals(new double[][]{{1, 4}, {2, 5}, {3, 6}}, t.readRowMajor());
+        assertMatrixEquals(t.readRowMajor(), t.materialize().readRowMajor());
+        assertFalse(t.materialize().isTransposed());
+    }
+
+    @Test
+    void testAddAndNegate() {
+        FloatMatrix a = FloatMatrix.fromDense(new double[][]{{1, 2}, {3, 4}});
+        FloatMatrix b = FloatMatrix.fromDense(new double[][]{{10, 20}, {30, 40}});
+
+        FloatMatrix sum = a.blankLike();
+        a.addRange(b, sum, 0, 1);
+        a.addRange(b, sum, 1, 2);
+        assertMatrixEquals(new double[][]{{11, 22}, {33, 44}}, sum.readRowMajor());
+
+        FloatMatrix negated = a.blankLike();
+        a.negateRange(negated, 0, 2);
+        assertMatrixEquals(new double[][]{{-1, -2}, {-3, -4}}, negated.readRowMajor());
+        // the operand is left untouched
+        assertMatrixEquals(new double[][]{{1, 2}, {3, 4}}, a.readRowMajor());
+    }
+
+    @Test
+    void testAddLayoutMismatch() {
+        FloatMatrix a = FloatMatrix.fromDense(new double[][]{{1, 2}, {3, 4}});
+        FloatMatrix b = FloatMatrix.fromDense(new double[][]{{1, 2}, {3, 4}}).transpose();
+
+        assertThrows(IllegalArgumentException.class, () -> a.addRange(b, a.blankLike(), 0, 2));
+    }
+
+    @Test
+    void testMultiplyTransposedLeft() {
+        // A^T * B with A stored as its transpose
+        FloatMatrix at = FloatMatrix.fromDense(new double[][]{{1, 3}, {2, 4}}).transpose();
+        FloatMatrix b = FloatMatrix.fromDense(new double[][]{{5, 6}, {7, 8}});
+        FloatMatrix out = FloatMatrix.zeros(2, 2);
+
+        at.multiplyRange(b, out, 0, 2);
+
+        assertMatrixEquals(new double[][]{{19, 22}, {43, 50}}, out.readRowMajor());
+        assertThrows(IllegalArgumentException.class, () -> b.multiplyRange(at, out, 0, 2));
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], 1e-6);
+        }
+    }
+}
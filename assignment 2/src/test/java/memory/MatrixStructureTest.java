@@ -0,0 +1,68 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MatrixStructureTest {
+
+    @Test
+    void testDetect() {
+        assertEquals(MatrixStructure.IDENTITY, MatrixStructure.detect(new double[][]{{1, 0}, {0, 1}}));
+        assertEquals(MatrixStructure.DIAGONAL, MatrixStructure.detect(new double[][]{{2, 0}, {0, 1}}));
+        assertEquals(MatrixStructure.LOWER_TRIANGULAR, MatrixStructure.detect(new double[][]{{1, 0, 0}, {2, 3, 0}, {4, 5, 6}}));
+        assertEquals(MatrixStructure.UPPER_TRIANGULAR, MatrixStructure.detect(new double[][]{{1, 2, 3}, {0, 4, 5}, {0, 0, 6}}));
+        assertEquals(MatrixStructure.banded(1, 1),
+                MatrixStructure.detect(new double[][]{{1, 2, 0, 0}, {3, 4, 5, 0}, {0, 6, 7, 8}, {0, 0, 9, 1}}));
+        assertEquals(MatrixStructure.GENERAL, MatrixStructure.detect(new double[][]{{1, 2}, {3, 4}}));
+        // a non-square matrix with ones on the diagonal is not an identity
+        assertEquals(MatrixStructure.DIAGONAL, MatrixStructure.detect(new double[][]{{1, 0, 0}, {0, 1, 0}}));
+    }
+
+    @Test
+    void testParseAndAdmits() {
+        assertEquals(MatrixStructure.LOWER_TRIANGULAR, MatrixStructure.parse("Lower"));
+        assertEquals(MatrixStructure.banded(2, 0), MatrixStructure.parse("banded:2,0"));
+        assertThrows(IllegalArgumentException.class, () -> MatrixStructure.parse("banded:x"));
+        assertThrows(IllegalArgumentException.class, () -> MatrixStructure.parse("tridiagonal"));
+
+        double[][] lower = {{1, 0}, {2, 3}};
+        assertTrue(MatrixStructure.LOWER_TRIANGULAR.admits(lower));
+        assertFalse(MatrixStructure.UPPER_TRIANGULAR.admits(lower));
+        assertFalse(MatrixStructure.IDENTITY.admits(new double[][]{{2, 0}, {0, 1}}));
+    }
+
+    @Test
+    void testPropagation() {
+        assertEquals(MatrixStructure.UPPER_TRIANGULAR, MatrixStructure.LOWER_TRIANGULAR.transpose());
+        assertEquals(MatrixStructure.DIAGONAL, MatrixStructure.IDENTITY.negate());
+        assertEquals(MatrixStructure.LOWER_TRIANGULAR, MatrixStructure.IDENTITY.multiply(MatrixStructure.LOWER_TRIANGULAR));
+        assertEquals(MatrixStructure.LOWER_TRIANGULAR,
+                MatrixStructure.LOWER_TRIANGULAR.multiply(MatrixStructure.LOWER_TRIANGULAR));
+        assertEquals(MatrixStructure.banded(2, 3), MatrixStructure.banded(1, 1).multiply(MatrixStructure.banded(1, 2)));
+        assertTrue(MatrixStructure.LOWER_TRIANGULAR.add(MatrixStructure.UPPER_TRIANGULAR).isGeneral());
+        assertEquals(MatrixStructure.DIAGONAL, MatrixStructure.IDENTITY.add(MatrixStructure.IDENTITY));
+    }
+
+    @Test
+    void testBandedMultiply() {
+        double[][] a = {{2, 1, 0, 0}, {0, 3, 1, 0}, {0, 0, 4, 1}, {0, 0, 0, 5}}; // upper bidiagonal
+        double[][] b = {{1, 0, 0}, {2, 1, 0}, {3, 2, 1}, {4, 3, 2}}; // lower triangular
+        double[][] expected = {{4, 1, 0}, {9, 5, 1}, {16, 11, 6}, {20, 15, 10}};
+
+        SharedMatrix left = new SharedMatrix();
+        left.loadRowMajor(a);
+        SharedMatrix right = new SharedMatrix();
+        right.loadRowMajor(b);
+        BandedMultiply product = new BandedMultiply(left, MatrixStructure.detect(a), right, MatrixStructure.detect(b), null);
+        product.open();
+        product.multiplyRows(0, 1);
+        product.multiplyRows(1, 4);
+        product.close();
+
+        double[][] actual = product.result().readRowMajor();
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], 1e-9);
+        }
+    }
+}
@@ -194,5 +194,88 @@ public class SherdMatrixTest {
         col.loadColumnMajor(a);
         assertEquals(3, col.length());
     }
-}
 
+    @Test
+    void testVectorsAreViewsOfMatrixStorage() {
+        SharedMatrix m = new SharedMatrix(new double[][]{
+                {1, 2},
+                {3, 4}
+        });
+
+        m.get(1).negate();
+
+        double[][] out = m.readRowMajor();
+        assertArrayEquals(new double[]{1, 2}, out[0], 1e-9);
+        assertArrayEquals(new double[]{-3, -4}, out[1], 1e-9);
+    }
+
+    @Test
+    void testVecMatMulOnMatrixRows() {
+        SharedMatrix left = new SharedMatrix(new double[][]{
+                {1, 2},
+                {3, 4}
+        });
+        SharedMatrix right = new SharedMatrix(new double[][]{
+                {1, 0, 2},
+                {0, 1, 3}
+        });
+
+        for (int i = 0; i < left.length(); i++) {
+            left.get(i).vecMatMul(right);
+        }
+
+        double[][] out = left.readRowMajor();
+        assertArrayEquals(new double[]{1, 2, 8}, out[0], 1e-9);
+        assertArrayEquals(new double[]{3, 4, 18}, out[1], 1e-9);
+    }
+
+    @Test
+    void testApplyKernels() {
+        SharedMatrix a = new SharedMatrix(new double[][]{
+                {1, 2},
+                {3, 4}
+        });
+        SharedMatrix b = new SharedMatrix(new double[][]{
+                {10, 20},
+                {30, 40}
+        });
+
+        a.apply(b, Kernels.ADD);
+        a.apply(Kernels.NEGATE);
+
+        double[][] out = a.readRowMajor();
+        assertArrayEquals(new double[]{-11, -22}, out[0], 1e-9);
+        assertArrayEquals(new double[]{-33, -44}, out[1], 1e-9);
+    }
+
+    @Test
+    void testApplyDimensionMismatch() {
+        SharedMatrix a = new SharedMatrix(new double[][]{{1, 2}});
+        SharedMatrix b = new SharedMatrix(new double[][]{{1, 2, 3}});
+
+        assertThrows(IllegalArgumentException.class, () -> a.apply(b, Kernels.ADD));
+    }
+
+    @Test
+    void testTransposeIsLayoutOnly() {
+        SharedMatrix m = new SharedMatrix(new double[][]{
+                {1, 2, 3},
+                {4, 5, 6}
+        });
+
+        m.transpose();
+
+        assertEquals(VectorOrientation.COLUMN_MAJOR, m.getOrientation());
+        assertEquals(3, m.rowCount());
+        assertEquals(2, m.columnCount());
+        double[][] out = m.readRowMajor();
+        assertArrayEquals(new double[]{1, 4}, out[0], 1e-9);
+        assertArrayEquals(new double[]{2, 5}, out[1], 1e-9);
+        assertArrayEquals(new double[]{3, 6}, out[2], 1e-9);
+
+        // handing out a vector folds the transpose into the vectors themselves
+        assertEquals(VectorOrientation.COLUMN_MAJOR, m.get(0).getOrientation());
+        m.transpose();
+        assertArrayEquals(new double[]{1, 2, 3}, m.readRowMajor()[0], 1e-9);
+    }
+}
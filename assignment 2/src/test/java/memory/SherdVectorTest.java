@@ -88,4 +88,110 @@ public class SherdVectorTest {
             // Success if caught properly
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCustomKernels() {
+        // element-wise product plugged in through the same kernel API as add()
+        rowVec.apply(new SharedVector(new double[]{2.0, 2.0, 2.0}, VectorOrientation.ROW_MAJOR),
+                (dst, dOff, dStride, src, sOff, sStride, n) -> {
+                    for (int i = 0; i < n; i++) {
+                        dst[dOff + i * dStride] *= src[sOff + i * sStride];
+                    }
+                });
+        assertEquals(6.0, rowVec.get(2));
+
+        double sumOfSquares = rowVec.reduce(rowVec, Kernels.DOT);
+        assertEquals(4.0 + 16.0 + 36.0, sumOfSquares);
+    }
+
+    @Test
+    void testDotSelfThrowsOrientationMismatch() {
+        assertThrows(IllegalArgumentException.class, () -> rowVec.dot(rowVec));
+    }
+
+    @Test
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    void testOptimisticReadsSeeConsistentValues() throws InterruptedException {
+        SharedVector shared = new SharedVector(new double[]{1.0, 1.0, 1.0, 1.0}, VectorOrientation.ROW_MAJOR);
+        SharedVector ones = new SharedVector(new double[]{1.0, 1.0, 1.0, 1.0}, VectorOrientation.COLUMN_MAJOR);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicInteger torn = new AtomicInteger(0);
+        CountDownLatch started = new CountDownLatch(1);
+
+        // the writer negates the whole vector under its write lock, so every element always has the same sign
+        Thread writer = new Thread(() -> {
+            started.countDown();
+            while (!stop.get()) {
+                shared.negate();
+            }
+        });
+        writer.start();
+        started.await();
+
+        for (int i = 0; i < 20_000; i++) {
+            double sum = shared.dot(ones);
+            if (sum != 4.0 && sum != -4.0) {
+                torn.incrementAndGet();
+            }
+        }
+        stop.set(true);
+        writer.join();
+
+        assertEquals(0, torn.get(), "dot() must never observe a half-negated vector.");
+    }
+
+    @Test
+    void testKernelsHandleRemainderElements() {
+        // 37 is not a multiple of any SIMD lane count, so the tail loops run too
+        double[] a = new double[37];
+        double[] b = new double[37];
+        double expectedDot = 0;
+        for (int i = 0; i < a.length; i++) {
+            a[i] = i;
+            b[i] = 2 * i + 1;
+            expectedDot += a[i] * b[i];
+        }
+        SharedVector row = new SharedVector(a, VectorOrientation.ROW_MAJOR);
+        SharedVector col = new SharedVector(b, VectorOrientation.COLUMN_MAJOR);
+
+        assertEquals(expectedDot, row.dot(col), 1e-9);
+
+        row.add(new SharedVector(b, VectorOrientation.ROW_MAJOR));
+        row.negate();
+        for (int i = 0; i < a.length; i++) {
+            assertEquals(-(3 * i + 1), row.get(i), 1e-9);
+        }
+        assertTrue(Kernels.backend().equals("scalar") || Kernels.backend().startsWith("simd"));
+    }
+
+    @Test
+    void testRangeUpdatesTouchOnlyTheirRange() {
+        SharedVector v = new SharedVector(new double[]{1, 2, 3, 4, 5}, VectorOrientation.ROW_MAJOR);
+        SharedVector w = new SharedVector(new double[]{10, 20, 30, 40, 50}, VectorOrientation.ROW_MAJOR);
+
+        v.add(w, 1, 3);
+        v.negate(3, 5);
+
+        double[] expected = {1, 22, 33, -4, -5};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], v.get(i), 1e-9);
+        }
+        assertThrows(IllegalArgumentException.class, () -> v.negate(2, 6));
+        assertThrows(IllegalArgumentException.class, () -> v.add(w, 3, 2));
+    }
+
+    @Test
+    void testRangeUpdatesInvalidateOptimisticReads() {
+        SharedVector v = new SharedVector(new double[]{1, 2, 3, 4}, VectorOrientation.ROW_MAJOR);
+        SharedVector w = new SharedVector(new double[]{10, 20, 30, 40}, VectorOrientation.ROW_MAJOR);
+
+        // a reader that started before the write must not validate after it
+        long stamp = v.tryOptimisticRead();
+        v.add(w, 0, 2);
+        assertFalse(v.validate(stamp));
+
+        stamp = v.tryOptimisticRead();
+        v.negate(2, 4);
+        assertFalse(v.validate(stamp));
+    }
+}
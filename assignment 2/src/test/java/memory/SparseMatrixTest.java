@@ -0,0 +1,110 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SparseMatrixTest {
+
+    private static final double[][] A = {
+            {0, 2, 0},
+            {0, 0, 0},
+            {3, 0, 4}
+    };
+    private static final double[][] B = {
+            {1, 0, 0},
+            {0, 0, 5},
+            {-3, 0, 0}
+    };
+
+    @Test
+    void testFromDenseRoundTrip() {
+        SparseMatrix s = SparseMatrix.fromDense(A);
+
+        assertEquals(3, s.rowCount());
+        assertEquals(3, s.columnCount());
+        assertEquals(3, s.nonZeros());
+        assertEquals(VectorOrientation.ROW_MAJOR, s.getOrientation());
+        assertMatrixEquals(A, s.readRowMajor());
+        assertEquals(3.0 / 9, SparseMatrix.density(A), 1e-9);
+    }
+
+    @Test
+    void testTransposeSharesStorage() {
+        double[][] rect = {{0, 1, 0, 0}, {2, 0, 0, 3}};
+        SparseMatrix t = SparseMatrix.fromDense(rect).transpose();
+
+        assertEquals(4, t.rowCount());
+        assertEquals(2, t.columnCount());
+        assertEquals(VectorOrientation.COLUMN_MAJOR, t.getOrientation());
+        assertMatrixEquals(new double[][]{{0, 2}, {1, 0}, {0, 0}, {0, 3}}, t.readRowMajor());
+
+        // converting to CSR must not change the content
+        SparseMatrix csr = t.toOrientation(VectorOrientation.ROW_MAJOR);
+        assertEquals(VectorOrientation.ROW_MAJOR, csr.getOrientation());
+        assertMatrixEquals(t.readRowMajor(), csr.readRowMajor());
+    }
+
+    @Test
+    void testNegateAndAdd() {
+        SparseMatrix a = SparseMatrix.fromDense(A);
+        SparseMatrix b = SparseMatrix.fromDense(B);
+
+        double[] values = new double[a.nonZeros()];
+        a.negateRange(values, 0, 2);
+        a.negateRange(values, 2, 3);
+        assertMatrixEquals(new double[][]{{0, -2, 0}, {0, 0, 0}, {-3, 0, -4}}, a.withValues(values).readRowMajor());
+
+        SparseMatrix.Builder sum = new SparseMatrix.Builder(3, 3, VectorOrientation.ROW_MAJOR);
+        a.addRange(b, sum, 0, 3);
+        SparseMatrix result = sum.build();
+        // 3 + -3 cancels out and is not stored
+        assertEquals(4, result.nonZeros());
+        assertMatrixEquals(new double[][]{{1, 2, 0}, {0, 0, 5}, {0, 0, 4}}, result.readRowMajor());
+    }
+
+    @Test
+    void testAddOrientationMismatch() {
+        SparseMatrix a = SparseMatrix.fromDense(A);
+        SparseMatrix b = SparseMatrix.fromDense(B).transpose();
+        SparseMatrix.Builder sum = new SparseMatrix.Builder(3, 3, VectorOrientation.ROW_MAJOR);
+
+        assertThrows(IllegalArgumentException.class, () -> a.addRange(b, sum, 0, 3));
+    }
+
+    @Test
+    void testMultiplyKernels() {
+        double[][] expected = {{0, 0, 10}, {0, 0, 0}, {-9, 0, 0}};
+        SparseMatrix a = SparseMatrix.fromDense(A);
+        SparseMatrix b = SparseMatrix.fromDense(B);
+
+        double[][] sparseDense = new double[3][3];
+        a.multiplyDenseRange(B, sparseDense, 0, 3);
+        assertMatrixEquals(expected, sparseDense);
+
+        double[][] denseSparse = new double[3][3];
+        SparseMatrix.multiplyDenseRange(A, b, denseSparse, 0, 1);
+        SparseMatrix.multiplyDenseRange(A, b, denseSparse, 1, 3);
+        assertMatrixEquals(expected, denseSparse);
+
+        SparseMatrix.Builder product = new SparseMatrix.Builder(3, 3, VectorOrientation.ROW_MAJOR);
+        a.multiplySparseRange(b, product, 0, 3);
+        SparseMatrix result = product.build();
+        assertEquals(2, result.nonZeros());
+        assertMatrixEquals(expected, result.readRowMajor());
+    }
+
+    @Test
+    void testMultiplyNeedsCsr() {
+        SparseMatrix csc = SparseMatrix.fromDense(A).transpose();
+
+        assertThrows(IllegalArgumentException.class, () -> csc.multiplyDenseRange(B, new double[3][3], 0, 3));
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], 1e-9);
+        }
+    }
+}
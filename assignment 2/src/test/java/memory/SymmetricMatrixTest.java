@@ -0,0 +1,60 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SymmetricMatrixTest {
+
+    @Test
+    void testPackedLayout() {
+        // upper triangle of {{1, 2, 3}, {2, 4, 5}, {3, 5, 6}}
+        SymmetricMatrix s = new SymmetricMatrix(3, new double[]{1, 2, 3, 4, 5, 6});
+
+        assertEquals(6, SymmetricMatrix.packedLength(3));
+        assertEquals(5, s.get(1, 2));
+        assertEquals(5, s.get(2, 1));
+        assertMatrixEquals(new double[][]{{1, 2, 3}, {2, 4, 5}, {3, 5, 6}}, s.readRowMajor());
+        assertMatrixEquals(s.readRowMajor(), s.toShared(new BufferPool()).readRowMajor());
+        assertThrows(IllegalArgumentException.class, () -> new SymmetricMatrix(3, new double[5]));
+    }
+
+    @Test
+    void testNegate() {
+        SymmetricMatrix s = new SymmetricMatrix(2, new double[]{1, 2, 3});
+        double[] values = new double[s.packedLength()];
+        s.negateRange(values, 0, 1);
+        s.negateRange(values, 1, 3);
+
+        assertMatrixEquals(new double[][]{{-1, -2}, {-2, -3}}, s.withValues(values).readRowMajor());
+    }
+
+    @Test
+    void testGramProduct() {
+        double[][] a = {{1, 2}, {3, 4}, {5, 6}, {7, 8}, {9, 10}};
+        SharedMatrix operand = new SharedMatrix();
+        operand.loadRowMajor(a);
+
+        SymmetricMultiply product = new SymmetricMultiply(operand, null);
+        product.open();
+        assertEquals(3, product.pairCount());
+        product.multiplyPairs(0, 1);
+        product.multiplyPairs(1, 3);
+        product.close();
+
+        double[][] expected = new double[5][5];
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 5; j++) {
+                expected[i][j] = a[i][0] * a[j][0] + a[i][1] * a[j][1];
+            }
+        }
+        assertMatrixEquals(expected, product.result().readRowMajor());
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], 1e-9);
+        }
+    }
+}
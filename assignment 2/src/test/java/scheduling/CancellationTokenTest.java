@@ -0,0 +1,37 @@
+package scheduling;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CancellationTokenTest {
+
+    @Test
+    void testFirstReasonWins() {
+        CancellationToken token = new CancellationToken();
+        assertFalse(token.isCancelled());
+        assertNull(token.reason());
+        token.checkpoint();
+
+        IllegalArgumentException first = new IllegalArgumentException("first");
+        assertTrue(token.cancel(first));
+        assertFalse(token.cancel(new IllegalStateException("second")));
+        assertSame(first, token.reason());
+        assertSame(first, assertThrows(IllegalArgumentException.class, token::checkpoint));
+    }
+
+    @Test
+    void testDeadline() throws InterruptedException {
+        assertEquals(Long.MAX_VALUE, new CancellationToken().remainingNanos());
+
+        CancellationToken token = CancellationToken.withTimeout(10, TimeUnit.MILLISECONDS);
+        assertFalse(token.isCancelled());
+        Thread.sleep(30);
+        assertEquals(0, token.remainingNanos());
+        assertInstanceOf(CancellationException.class, token.reason());
+        assertThrows(CancellationException.class, token::checkpoint);
+    }
+}
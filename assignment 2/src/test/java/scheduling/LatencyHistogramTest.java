@@ -0,0 +1,47 @@
+package scheduling;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void testEmptyHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.count());
+        assertEquals(0, h.mean());
+        assertEquals(0, h.percentile(99));
+    }
+
+    @Test
+    void testPercentilesAreWithinTheirBucket() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            h.record(1_000);
+        }
+        h.record(1_000_000);
+
+        assertEquals(100, h.count());
+        assertEquals(1_000_000, h.max());
+        long p50 = h.percentile(50);
+        assertTrue(p50 >= 1_000 && p50 < 2_048, "p50 should be reported in 1000's bucket, was " + p50);
+        assertTrue(h.percentile(99) < 2_048);
+        assertEquals(1_000_000, h.percentile(100));
+    }
+
+    @Test
+    void testNegativeDurationsCountAsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        assertEquals(1, h.count());
+        assertEquals(0, h.max());
+    }
+
+    @Test
+    void testRejectsInvalidPercentile() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertThrows(IllegalArgumentException.class, () -> h.percentile(0));
+        assertThrows(IllegalArgumentException.class, () -> h.percentile(101));
+    }
+}
@@ -1,6 +1,20 @@
 package scheduling;
 
 import org.junit.jupiter.api.Test;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.Collections;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -63,7 +77,7 @@ public class TiredExecutorTest {
         final Object lock = new Object();
         final int[] count = {0};
 
-        java.util.List<Runnable> tasks = new java.util.ArrayList<>();
+        List<Runnable> tasks = new ArrayList<>();
         for (int i = 0; i < 5; i++) {
             tasks.add(() -> {
                 for (int j = 0; j < 100_000; j++) {
@@ -149,7 +163,555 @@ public class TiredExecutorTest {
             assertTrue(rep.contains("Worker 0"), "Report should include Worker 0.");
             assertTrue(rep.contains("Worker 1"), "Report should include Worker 1.");
             assertTrue(rep.contains("Worker 2"), "Report should include Worker 2.");
+            assertTrue(rep.contains("handoffAvg(ns)="), "Report should include the handoff latency.");
+        } finally {
+            ex.shutdown();
+        }
+    }
+
+    @Test
+    void testWorkStealingRunsAllTasks() throws InterruptedException {
+        TiredExecutor ex = new TiredExecutor(4, SchedulingMode.WORK_STEALING);
+        AtomicInteger count = new AtomicInteger();
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            tasks.add(count::incrementAndGet);
+        }
+
+        try {
+            // twice, so that parked workers are woken up again
+            ex.submitAll(tasks);
+            assertEquals(2000, count.get(), "submitAll should finish only after all tasks are executed.");
+            ex.submitAll(tasks);
+            assertEquals(4000, count.get());
+            assertEquals(SchedulingMode.WORK_STEALING, ex.getMode());
+            assertTrue(ex.getWorkerReport().contains("Worker 3"));
+        } finally {
+            ex.shutdown();
+        }
+    }
+
+    @Test
+    void testWorkStealingSurvivesFailingTask() throws InterruptedException {
+        TiredExecutor ex = new TiredExecutor(1, SchedulingMode.WORK_STEALING);
+        final boolean[] ran = {false};
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> { });
+
+        try {
+            // the failure surfaces on the submitter
+            assertThrows(IllegalStateException.class, () -> ex.submitAll(List.of(() -> {
+                throw new IllegalStateException("boom");
+            })));
+            ex.submitAll(List.of(() -> ran[0] = true));
+            assertTrue(ran[0], "The worker should keep running after a task failed.");
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+            ex.shutdown();
+        }
+    }
+
+    @Test
+    void testSubmitAllAsyncCompletesBatch() throws Exception {
+        for (SchedulingMode mode : SchedulingMode.values()) {
+            TiredExecutor ex = new TiredExecutor(2, mode);
+            AtomicInteger count = new AtomicInteger();
+            List<Runnable> tasks = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                tasks.add(count::incrementAndGet);
+            }
+
+            try {
+                // the second batch only starts once the first one is done
+                CompletableFuture<Void> first = ex.submitAllAsync(tasks);
+                CompletableFuture<Void> second = ex.runAfter(first,
+                        List.of(() -> assertEquals(500, count.get())));
+                second.get(5, TimeUnit.SECONDS);
+
+                assertEquals(500, count.get(), "All tasks of the batch should have run in " + mode);
+                assertTrue(ex.submitAllAsync(List.of()).isDone(), "An empty batch is complete at once.");
+            } finally {
+                ex.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testSubmitAsyncReportsFailure() throws InterruptedException {
+        TiredExecutor ex = new TiredExecutor(1);
+        try {
+            CompletableFuture<Void> failed = ex.submitAsync(() -> {
+                throw new IllegalStateException("boom");
+            });
+            ExecutionException error = assertThrows(ExecutionException.class,
+                    () -> failed.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, error.getCause());
+
+            // a dependent batch is skipped, and the worker is still usable
+            final boolean[] ran = {false};
+            assertTrue(ex.runAfter(failed, List.of(() -> ran[0] = true)).isCompletedExceptionally());
+            ex.submitAll(List.of(() -> ran[0] = true));
+            assertTrue(ran[0]);
+        } finally {
+            ex.shutdown();
+        }
+    }
+
+    @Test
+    void testFullBacklogRunsOnCaller() throws Exception {
+        TiredExecutor ex = new TiredExecutor(1, SchedulingMode.HANDOFF, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        final Thread[] runner = new Thread[1];
+
+        try {
+            CompletableFuture<Void> blocking = ex.submitAsync(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            CompletableFuture<Void> overflow = ex.submitAsync(() -> runner[0] = Thread.currentThread());
+
+            assertTrue(overflow.isDone(), "The overflowing task should have run before submitAsync returned.");
+            assertSame(Thread.currentThread(), runner[0]);
+            release.countDown();
+            blocking.get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            ex.shutdown();
+        }
+    }
+
+    @Test
+    void testPrefersLeastTiredIdleWorker() throws InterruptedException {
+        TiredExecutor ex = new TiredExecutor(3);
+        final Thread[] runners = new Thread[2];
+
+        try {
+            // the first worker gets tired, the next task should go to a fresh one
+            ex.submitAll(List.of(() -> {
+                runners[0] = Thread.currentThread();
+                long end = System.nanoTime() + 5_000_000;
+                while (System.nanoTime() < end) {
+                    // busy work
+                }
+            }));
+            ex.submitAll(List.of(() -> runners[1] = Thread.currentThread()));
+
+            assertNotSame(runners[0], runners[1], "A fresh worker should be preferred over a tired one.");
+        } finally {
+            ex.shutdown();
+        }
+    }
+
+    @Test
+    void testConcurrentSubmittersAllComplete() throws InterruptedException {
+        TiredExecutor ex = new TiredExecutor(2);
+        AtomicInteger count = new AtomicInteger();
+        Thread[] submitters = new Thread[4];
+        for (int t = 0; t < submitters.length; t++) {
+            submitters[t] = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    ex.submit(count::incrementAndGet);
+                }
+            });
+            submitters[t].start();
+        }
+
+        try {
+            for (Thread t : submitters) {
+                t.join(10_000);
+                assertFalse(t.isAlive(), "Submitters blocked on busy workers should be woken up.");
+            }
+        } finally {
+            ex.shutdown();
+        }
+        assertEquals(2000, count.get());
+    }
+
+    @Test
+    void testMetricsCoverBatchesAndTasks() throws InterruptedException {
+        TiredExecutor ex = new TiredExecutor(2);
+        try {
+            List<Runnable> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add(() -> {
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            ex.submitAll(tasks);
+
+            ExecutorMetrics metrics = ex.getMetrics();
+            assertEquals(8, metrics.getTasksCompleted());
+            assertEquals(1, metrics.getBatches());
+            assertTrue(metrics.getRunTimeP50() >= 1_000_000, "Each task sleeps for 2ms.");
+            assertTrue(metrics.getRunTimeMax() >= metrics.getRunTimeP99());
+            assertTrue(metrics.getLastBatchMakespan() >= metrics.getLastBatchIdeal());
+            assertTrue(metrics.getBatchEfficiency() > 0 && metrics.getBatchEfficiency() <= 1);
+        } finally {
+            ex.shutdown();
+        }
+        // worker counters settle once the workers are done with the batch's bookkeeping
+        long perWorker = 0;
+        for (ExecutorMetrics.WorkerMetrics w : ex.getMetrics().getWorkers()) {
+            perWorker += w.getTasks();
+        }
+        assertEquals(8, perWorker);
+    }
+
+    @Test
+    void testMetricsAreExportedOverJmx() throws Exception {
+        TiredExecutor ex = new TiredExecutor(2);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = ex.registerMBean("test-" + System.nanoTime());
+        try {
+            ex.submitAll(List.of(() -> { }, () -> { }, () -> { }));
+            assertTrue(server.isRegistered(name));
+            assertEquals(3L, server.getAttribute(name, "TasksCompleted"));
+            assertEquals(1L, server.getAttribute(name, "Batches"));
+            assertEquals("HANDOFF", server.getAttribute(name, "Mode"));
+            assertEquals(2, ((long[]) server.getAttribute(name, "TasksPerWorker")).length);
+        } finally {
+            ex.shutdown();
+        }
+        assertFalse(server.isRegistered(name), "shutdown() should unregister the MBean.");
+    }
+
+    @Test
+    void testElasticPoolGrowsUnderLoadAndShrinksWhenIdle() throws Exception {
+        ElasticPolicy policy = new ElasticPolicy(1, 4, 0, 50_000_000L, ElasticPolicy.DEFAULT_LAG_RATIO);
+        TiredExecutor ex = new TiredExecutor(1, SchedulingMode.HANDOFF, TiredExecutor.DEFAULT_BACKLOG_CAPACITY,
+                WaitStrategy.PARK, policy);
+        try {
+            List<Runnable> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                tasks.add(() -> {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            CompletableFuture<Void> done = ex.submitAllAsync(tasks);
+            assertEquals(4, ex.getWorkerCount(), "A backlog should grow the pool to its maximum.");
+            done.get(10, TimeUnit.SECONDS);
+
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (ex.getWorkerCount() > 1 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, ex.getWorkerCount(), "Idle workers should retire down to the minimum.");
+            assertTrue(ex.getWorkerReport().contains("Pool | elastic min=1 max=4"));
+
+            // the pool still works, and grows again, after shrinking
+            ex.submitAll(tasks);
+            assertEquals(16, ex.getMetrics().getTasksCompleted());
+        } finally {
+            ex.shutdown();
+        }
+    }
+
+    @Test
+    void testWorkerWithLargerTasksIsNotALaggard() throws Exception {
+        // an idle timeout of an hour keeps the maintainer from rotating anything by itself
+        ElasticPolicy policy = new ElasticPolicy(2, 2, 0, 3_600_000_000_000L, ElasticPolicy.DEFAULT_LAG_RATIO);
+        TiredExecutor ex = new TiredExecutor(2, SchedulingMode.HANDOFF, TiredExecutor.DEFAULT_BACKLOG_CAPACITY,
+                WaitStrategy.PARK, policy);
+        try {
+            // one task on each worker, to get hold of both
+            List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch both = new CountDownLatch(2);
+            List<Runnable> tasks = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                tasks.add(() -> {
+                    threads.add(Thread.currentThread());
+                    both.countDown();
+                    try {
+                        both.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            ex.submitAllAsync(tasks).get(10, TimeUnit.SECONDS);
+            TiredThread large = (TiredThread) threads.get(0);
+            TiredThread small = (TiredThread) threads.get(1);
+
+            // the same throughput, one worker's chunks taking a thousand times longer
+            for (int i = 0; i < ElasticPolicy.MIN_LAG_SAMPLES; i++) {
+                large.recordWork(1_000_000, 1_000_000);
+                small.recordWork(1_000, 1_000);
+            }
+            assertTrue(ex.laggards().isEmpty(), "Larger tasks alone should not make a worker lag.");
+
+            // a tenth of the throughput does
+            for (int i = 0; i < ElasticPolicy.MIN_LAG_SAMPLES; i++) {
+                small.recordWork(100, 1_000);
+            }
+            assertEquals(List.of(small), ex.laggards());
+        } finally {
+            ex.shutdown();
+        }
+    }
+
+    @Test
+    void testElasticPoolRequiresHandoff() {
+        assertThrows(IllegalArgumentException.class, () -> new TiredExecutor(1, SchedulingMode.WORK_STEALING,
+                TiredExecutor.DEFAULT_BACKLOG_CAPACITY, WaitStrategy.PARK, new ElasticPolicy(1, 2)));
+        assertThrows(IllegalArgumentException.class, () -> new TiredExecutor(3, SchedulingMode.HANDOFF,
+                TiredExecutor.DEFAULT_BACKLOG_CAPACITY, WaitStrategy.PARK, new ElasticPolicy(1, 2)));
+    }
+
+    @Test
+    void testSubmitRangeCoversEveryUnitOnce() throws InterruptedException {
+        for (SchedulingMode mode : SchedulingMode.values()) {
+            TiredExecutor ex = new TiredExecutor(3, mode);
+            try {
+                AtomicIntegerArray seen = new AtomicIntegerArray(10_000);
+                ex.submitRange(seen.length(), 100, 16, (from, to) -> {
+                    assertTrue(to - from >= 16 || to == seen.length(), "Chunks respect the minimum size.");
+                    for (int i = from; i < to; i++) {
+                        seen.incrementAndGet(i);
+                    }
+                });
+                for (int i = 0; i < seen.length(); i++) {
+                    assertEquals(1, seen.get(i), "Unit " + i + " should run exactly once.");
+                }
+                double measured = 0;
+                for (ExecutorMetrics.WorkerMetrics w : ex.getMetrics().getWorkers()) {
+                    measured += w.getThroughput();
+                }
+                assertTrue(measured > 0, "Workers should have measured their throughput.");
+            } finally {
+                ex.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testNestedBatchesFromEveryWorkerComplete() throws Exception {
+        for (SchedulingMode mode : SchedulingMode.values()) {
+            TiredExecutor ex = new TiredExecutor(2, mode);
+            try {
+                AtomicInteger inner = new AtomicInteger();
+                List<Runnable> outer = new ArrayList<>();
+                // more outer tasks than workers, each waiting on a batch of its own
+                for (int i = 0; i < 6; i++) {
+                    outer.add(() -> {
+                        List<Runnable> tasks = new ArrayList<>();
+                        for (int j = 0; j < 8; j++) {
+                            tasks.add(inner::incrementAndGet);
+                        }
+                        ex.submitAll(tasks);
+                    });
+                }
+                ex.submitAllAsync(outer).get(10, TimeUnit.SECONDS);
+                assertEquals(48, inner.get(), "Every nested task should run in " + mode);
+            } finally {
+                ex.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testSubmitRangeRecordsEveryChunk() throws InterruptedException {
+        TiredExecutor ex = new TiredExecutor(3);
+        try {
+            AtomicInteger chunks = new AtomicInteger();
+            ex.submitRange(10_000, 100, 16, (from, to) -> chunks.incrementAndGet());
+            ExecutorMetrics metrics = ex.getMetrics();
+            assertTrue(chunks.get() > 3, "The range should be split into more chunks than workers.");
+            assertEquals(chunks.get(), metrics.getTasksCompleted(), "Every chunk should be one run time sample.");
+            assertEquals(1, metrics.getBatches());
+        } finally {
+            ex.shutdown();
+        }
+    }
+
+    @Test
+    void testSpeculativeBatchDuplicatesStraggler() throws InterruptedException {
+        for (SchedulingMode mode : SchedulingMode.values()) {
+            TiredExecutor ex = new TiredExecutor(2, mode);
+            CountDownLatch release = new CountDownLatch(1);
+            List<String> commits = Collections.synchronizedList(new ArrayList<>());
+            try {
+                Thread submitter = new Thread(() -> ex.submitSpeculative(stragglerBatch(release, commits)));
+                submitter.start();
+                submitter.join(10_000);
+                assertFalse(submitter.isAlive(), "The straggler should not hold up the batch in " + mode);
+                assertEquals(4, commits.size(), "Every task commits exactly once.");
+                assertTrue(commits.contains("duplicate"));
+                assertFalse(commits.contains("original"));
+                assertTrue(ex.getWorkerReport().contains("Speculation | launched=1 | won=1"));
+            } finally {
+                release.countDown();
+                ex.shutdown();
+            }
+            assertEquals(4, commits.size(), "The losing attempt must not commit.");
+        }
+    }
+
+    @Test
+    void testSpeculativeBatchKeepsOperandsUntilEveryAttemptEnded() throws InterruptedException {
+        TiredExecutor ex = new TiredExecutor(2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch settled = new CountDownLatch(1);
+        memory.BufferPool pool = new memory.BufferPool();
+        double[] operand = pool.acquire(1024);
+        try {
+            Thread submitter = new Thread(() -> ex.submitSpeculative(stragglerBatch(release, new ArrayList<>()),
+                    new CancellationToken(), () -> {
+                        pool.release(operand);
+                        settled.countDown();
+                    }));
+            submitter.start();
+            submitter.join(10_000);
+            assertFalse(submitter.isAlive(), "The batch should be done once its duplicate committed.");
+            assertEquals(0, pool.getRetained(), "The operand must not be released while the straggler still runs.");
+        } finally {
+            release.countDown();
+        }
+        assertTrue(settled.await(10, TimeUnit.SECONDS));
+        assertEquals(1024, pool.getRetained(), "The operand should be released once the straggler ended.");
+        ex.shutdown();
+    }
+
+    // four tasks; the first attempt of task 0 blocks until release, its duplicate does not
+    private static List<SpeculativeTask<String>> stragglerBatch(CountDownLatch release,
+                                                                         List<String> commits) {
+        AtomicInteger attempts = new AtomicInteger();
+        List<SpeculativeTask<String>> tasks = new ArrayList<>();
+        tasks.add(new SpeculativeTask<>() {
+            @Override
+            public String compute() {
+                if (attempts.getAndIncrement() == 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "original";
+                }
+                return "duplicate";
+            }
+
+            @Override
+            public void commit(String result) {
+                commits.add(result);
+            }
+        });
+        for (int i = 1; i < 4; i++) {
+            String name = "task" + i;
+            tasks.add(new SpeculativeTask<>() {
+                @Override
+                public String compute() {
+                    return name;
+                }
+
+                @Override
+                public void commit(String result) {
+                    commits.add(result);
+                }
+            });
+        }
+        return tasks;
+    }
+
+    @Test
+    void testSpeculativeBatchRethrowsFailure() throws InterruptedException {
+        TiredExecutor ex = new TiredExecutor(2);
+        try {
+            SpeculativeTask<Object> failing = new SpeculativeTask<>() {
+                @Override
+                public Object compute() {
+                    throw new IllegalArgumentException("boom");
+                }
+
+                @Override
+                public void commit(Object result) {
+                    fail("A failed task has nothing to commit.");
+                }
+            };
+            assertThrows(IllegalArgumentException.class, () -> ex.submitSpeculative(List.of(failing)));
+        } finally {
+            ex.shutdown();
+        }
+    }
+
+    @Test
+    void testFailedBatchDropsQueuedTasks() throws InterruptedException {
+        for (SchedulingMode mode : SchedulingMode.values()) {
+            TiredExecutor ex = new TiredExecutor(1, mode);
+            AtomicInteger ran = new AtomicInteger();
+            List<Runnable> tasks = new ArrayList<>();
+            tasks.add(() -> {
+                throw new IllegalArgumentException("boom");
+            });
+            for (int i = 0; i < 100; i++) {
+                tasks.add(ran::incrementAndGet);
+            }
+            try {
+                IllegalArgumentException error = assertThrows(IllegalArgumentException.class, () -> ex.submitAll(tasks));
+                assertEquals("boom", error.getMessage());
+                assertTrue(ran.get() < 100, "Tasks queued behind the failure should be dropped in " + mode);
+
+                // the single worker survived
+                final boolean[] after = {false};
+                ex.submitAll(List.of(() -> after[0] = true));
+                assertTrue(after[0]);
+            } finally {
+                ex.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testDeadlineStopsRunningTasksAtCheckpoints() throws InterruptedException {
+        TiredExecutor ex = new TiredExecutor(2);
+        CancellationToken token = CancellationToken.withTimeout(50, TimeUnit.MILLISECONDS);
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            tasks.add(() -> {
+                while (true) {
+                    token.checkpoint();
+                    Thread.onSpinWait();
+                }
+            });
+        }
+        try {
+            long start = System.nanoTime();
+            assertThrows(CancellationException.class, () -> ex.submitAll(tasks, token));
+            assertTrue(System.nanoTime() - start < 2_000_000_000L, "The deadline should end the batch promptly.");
+            assertTrue(token.isCancelled());
+
+            final boolean[] after = {false};
+            ex.submitAll(List.of(() -> after[0] = true));
+            assertTrue(after[0], "Workers stopped at a checkpoint are still usable.");
+        } finally {
+            ex.shutdown();
+        }
+    }
+
+    @Test
+    void testHandoffWorkerSurvivesFailingTask() throws InterruptedException {
+        TiredExecutor ex = new TiredExecutor(1);
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> { });
+        try {
+            ex.submit(() -> {
+                throw new IllegalStateException("boom");
+            });
+            final boolean[] ran = {false};
+            ex.submitAll(List.of(() -> ran[0] = true));
+            assertTrue(ran[0], "The worker should keep running after a task failed.");
         } finally {
+            Thread.setDefaultUncaughtExceptionHandler(previous);
             ex.shutdown();
         }
     }
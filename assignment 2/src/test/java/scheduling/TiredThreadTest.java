@@ -1,6 +1,9 @@
 package scheduling;
 
 import org.junit.jupiter.api.Test;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -117,5 +120,71 @@ public class TiredThreadTest {
 
         assertFalse(t.isAlive(), "Thread should stop after shutdown even if no tasks were submitted.");
     }
-}
 
+    @Test
+    void testIdlePeerStealsQueuedTasks() throws InterruptedException {
+        TiredThread[] peers = {new TiredThread(0, 1.0), new TiredThread(1, 1.0)};
+        for (TiredThread t : peers) {
+            t.joinPeers(peers);
+        }
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch stolen = new CountDownLatch(1);
+        final Thread[] runner = new Thread[1];
+
+        // worker 0 is stuck on its first task, the second one can only run on worker 1
+        peers[0].push(() -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        peers[0].push(() -> {
+            runner[0] = Thread.currentThread();
+            stolen.countDown();
+        });
+        peers[0].start();
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        peers[1].start();
+        peers[1].wake();
+
+        assertTrue(stolen.await(1, TimeUnit.SECONDS), "The idle peer should steal the task.");
+        assertSame(peers[1], runner[0]);
+
+        release.countDown();
+        for (TiredThread t : peers) {
+            t.shutdown();
+            t.join(1000);
+            assertFalse(t.isAlive(), "Worker should stop after shutdown.");
+        }
+    }
+
+    @Test
+    void testSpinningHandoffRecordsLatency() throws InterruptedException {
+        for (WaitStrategy strategy : new WaitStrategy[]{WaitStrategy.PARK, new WaitStrategy(100_000, 4)}) {
+            TiredThread t = new TiredThread(6, 1.0, strategy);
+            t.start();
+            CountDownLatch done = new CountDownLatch(3);
+
+            for (int i = 0; i < 3; i++) {
+                while (true) {
+                    try {
+                        t.newTask(done::countDown);
+                        break;
+                    } catch (IllegalStateException busy) {
+                        Thread.yield();
+                    }
+                }
+            }
+
+            assertTrue(done.await(2, TimeUnit.SECONDS), "All tasks should run with " + strategy);
+            assertEquals(3, t.getHandoffCount());
+            assertTrue(t.getAverageHandoffNanos() >= 0);
+
+            t.shutdown();
+            t.join(1000);
+            assertFalse(t.isAlive(), "Thread should terminate after shutdown with " + strategy);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package scheduling;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeightedRangeTest {
+
+    private static int size(long chunk) {
+        return (int) chunk - (int) (chunk >>> 32);
+    }
+
+    @Test
+    void testFasterWorkerClaimsLargerChunks() {
+        // slot 0 measured three times as fast as slot 1
+        WeightedRange range = new WeightedRange(1000, 1, new double[]{3, 1}, 2);
+        long fast = range.claim(0);
+        long slow = range.claim(1);
+        assertEquals(375, size(fast)); // 1000 * 3/4 / 2
+        assertEquals(79, size(slow)); // 625 * 1/4 / 2, rounded up
+        assertEquals(375, (int) (slow >>> 32), "Chunks are contiguous.");
+    }
+
+    @Test
+    void testChunksShrinkButRespectMinimum() {
+        WeightedRange range = new WeightedRange(100, 10, new double[]{1}, 1);
+        int covered = 0;
+        int last = Integer.MAX_VALUE;
+        long chunk;
+        while ((chunk = range.claim(0)) >= 0) {
+            int size = size(chunk);
+            assertTrue(size <= last);
+            assertTrue(size >= 10 || covered + size == 100);
+            covered += size;
+            last = size;
+        }
+        assertEquals(100, covered);
+    }
+
+    @Test
+    void testUnknownWorkerGetsAnEvenShare() {
+        WeightedRange range = new WeightedRange(800, 1, new double[]{1, 1}, 2);
+        assertEquals(200, size(range.claim(5))); // 800 * 1/2 / 2
+    }
+}
@@ -3,16 +3,32 @@ package spl.lae;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
+import memory.BufferPool;
+import memory.ElementType;
+import memory.MatrixStructure;
+import memory.SharedMatrix;
+import memory.SparseMatrix;
 import parser.ComputationNode;
+import parser.ComputationNodeType;
 import parser.InputParser;
 import spl.lae.LinearAlgebraEngine;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.List;
+import java.util.Random;
 
 public class LinearAlgebraEngineTest {
     final private int THREAD_COUNT = 3;
@@ -77,4 +93,599 @@ public class LinearAlgebraEngineTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testTiledMultiplyMatchesRowWise() throws InterruptedException {
+        // odd sizes so that edge tiles and partial depth blocks are exercised
+        double[][] a = randomMatrix(70, 300, 1);
+        double[][] b = randomMatrix(300, 260, 2);
+
+        double[][] rowWise = multiply(a, b, MultiplyStrategy.ROW_WISE);
+        double[][] tiled = multiply(a, b, MultiplyStrategy.TILED);
+
+        Assertions.assertEquals(rowWise.length, tiled.length);
+        for (int i = 0; i < rowWise.length; i++) {
+            Assertions.assertArrayEquals(rowWise[i], tiled[i], 1e-9, "Mismatch in row " + i);
+        }
+    }
+
+    @Test
+    public void testStrassenMatchesTiled() throws InterruptedException {
+        // 150 with cutoff 16 pads to 160 = 10 * 2^4, so padding and four recursion levels are exercised
+        double[][] a = randomMatrix(150, 150, 3);
+        double[][] b = randomMatrix(150, 150, 4);
+
+        double[][] tiled = multiply(a, b, MultiplyStrategy.TILED);
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT, MultiplyStrategy.STRASSEN, 16);
+        double[][] strassen = engine.run(multiplyNode(a, b)).getMatrix();
+        MultiplyStrategy ran = engine.getLastMultiplyAlgorithm();
+        engine.shutdown();
+
+        Assertions.assertEquals(MultiplyStrategy.STRASSEN, ran);
+        for (int i = 0; i < tiled.length; i++) {
+            Assertions.assertArrayEquals(tiled[i], strassen[i], 1e-6, "Mismatch in row " + i);
+        }
+    }
+
+    @Test
+    public void testStrassenFallsBackForNonSquare() throws InterruptedException {
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT, MultiplyStrategy.STRASSEN, 16);
+        double[][] result = engine.run(multiplyNode(randomMatrix(40, 30, 5), randomMatrix(30, 40, 6))).getMatrix();
+        MultiplyStrategy ran = engine.getLastMultiplyAlgorithm();
+        engine.shutdown();
+
+        Assertions.assertEquals(MultiplyStrategy.TILED, ran);
+        Assertions.assertEquals(40, result.length);
+        Assertions.assertEquals(40, result[0].length);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"ROW_WISE", "TILED", "STRASSEN"})
+    public void testMultiplyByTransposedOperand(String strategy) throws InterruptedException {
+        double[][] a = randomMatrix(20, 30, 7);
+        double[][] b = randomMatrix(25, 30, 8);
+        double[][] bt = new double[30][25];
+        for (int i = 0; i < 25; i++) {
+            for (int j = 0; j < 30; j++) {
+                bt[j][i] = b[i][j];
+            }
+        }
+        double[][] expected = multiply(a, bt, MultiplyStrategy.ROW_WISE);
+
+        // A * B^T and (A^T)^T * B^T
+        List<ComputationNode> transposed = new ArrayList<>();
+        transposed.add(new ComputationNode(b));
+        List<ComputationNode> doubleTransposed = new ArrayList<>();
+        doubleTransposed.add(new ComputationNode("T", new ArrayList<>(List.of(new ComputationNode(a)))));
+        List<ComputationNode> operands = new ArrayList<>();
+        operands.add(new ComputationNode("T", doubleTransposed));
+        operands.add(new ComputationNode("T", transposed));
+        ComputationNode root = new ComputationNode("*", operands);
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT, MultiplyStrategy.valueOf(strategy), 4);
+        double[][] actual = engine.run(root).getMatrix();
+        engine.shutdown();
+
+        assertMatricesEqual(expected, actual, "A * B^T with " + strategy);
+    }
+
+    @Test
+    public void testAddTransposedOperands() throws InterruptedException {
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{10, 20}, {30, 40}};
+
+        // A^T + B^T stays transposed, A + B^T has to align the layouts
+        List<ComputationNode> bothTransposed = new ArrayList<>();
+        bothTransposed.add(new ComputationNode("T", new ArrayList<>(List.of(new ComputationNode(a)))));
+        bothTransposed.add(new ComputationNode("T", new ArrayList<>(List.of(new ComputationNode(b)))));
+        List<ComputationNode> mixed = new ArrayList<>();
+        mixed.add(new ComputationNode(a));
+        mixed.add(new ComputationNode("T", new ArrayList<>(List.of(new ComputationNode(b)))));
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT);
+        double[][] r1 = engine.run(new ComputationNode("+", bothTransposed)).getMatrix();
+        double[][] r2 = engine.run(new ComputationNode("+", mixed)).getMatrix();
+        engine.shutdown();
+
+        assertMatricesEqual(new double[][]{{11, 33}, {22, 44}}, r1, "A^T + B^T");
+        assertMatricesEqual(new double[][]{{11, 32}, {23, 44}}, r2, "A + B^T");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"ROW_WISE", "TILED", "STRASSEN"})
+    public void testFusedMultiplyAdd(String strategy) throws InterruptedException {
+        double[][] a = randomMatrix(40, 40, 12);
+        double[][] b = randomMatrix(40, 40, 13);
+        double[][] c = randomMatrix(40, 40, 14);
+        double[][] product = multiply(a, b, MultiplyStrategy.ROW_WISE);
+        double[][] expected = new double[40][40];
+        for (int i = 0; i < 40; i++) {
+            for (int j = 0; j < 40; j++) {
+                expected[i][j] = c[i][j] - product[i][j];
+            }
+        }
+
+        // C + -(A * B) becomes a single GEMM node with alpha = -1
+        List<ComputationNode> operands = new ArrayList<>();
+        operands.add(new ComputationNode(c));
+        operands.add(new ComputationNode("-", new ArrayList<>(List.of(multiplyNode(a, b)))));
+        ComputationNode root = new ComputationNode("+", operands);
+        root.fuseMultiplyAdd();
+        Assertions.assertEquals(ComputationNodeType.GEMM, root.getNodeType());
+        Assertions.assertEquals(-1, root.getAlpha());
+        Assertions.assertEquals(1, root.getBeta());
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT, MultiplyStrategy.valueOf(strategy), 8);
+        double[][] actual = engine.run(root).getMatrix();
+        engine.shutdown();
+
+        assertMatricesEqual(expected, actual, "C - A * B with " + strategy);
+    }
+
+    @Test
+    public void testFusedMultiplyAddWithSparseOperand() throws InterruptedException {
+        double[][] a = sparseMatrix(40, 30, 15);
+        double[][] b = randomMatrix(30, 20, 16);
+        double[][] c = randomMatrix(40, 20, 17);
+        double[][] expected = multiply(a, b, MultiplyStrategy.ROW_WISE);
+        for (int i = 0; i < 40; i++) {
+            for (int j = 0; j < 20; j++) {
+                expected[i][j] += c[i][j];
+            }
+        }
+
+        List<ComputationNode> product = new ArrayList<>();
+        product.add(new ComputationNode(SparseMatrix.fromDense(a)));
+        product.add(new ComputationNode(b));
+        List<ComputationNode> operands = new ArrayList<>();
+        operands.add(new ComputationNode("*", product));
+        operands.add(new ComputationNode(c));
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT);
+        double[][] actual = engine.run(new ComputationNode("+", operands)).getMatrix();
+        engine.shutdown();
+
+        assertMatricesEqual(expected, actual, "sparse A * B + C");
+    }
+
+    @Test
+    public void testResultsAreHandedOverWithoutCopies() throws InterruptedException {
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{10, 20}, {30, 40}};
+        List<ComputationNode> operands = new ArrayList<>();
+        operands.add(new ComputationNode(a));
+        operands.add(new ComputationNode(b));
+        ComputationNode sum = new ComputationNode("+", operands);
+        ComputationNode transposed = new ComputationNode("T", new ArrayList<>(List.of(sum)));
+        ComputationNode negated = new ComputationNode("-", new ArrayList<>(List.of(transposed)));
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT);
+        engine.loadAndCompute(sum);
+        Assertions.assertTrue(sum.isResident());
+
+        // each parent takes its child's matrix over
+        engine.loadAndCompute(transposed);
+        engine.loadAndCompute(negated);
+        engine.shutdown();
+
+        Assertions.assertFalse(sum.isResident());
+        Assertions.assertFalse(transposed.isResident());
+        Assertions.assertTrue(negated.isResident());
+        assertMatricesEqual(new double[][]{{-11, -33}, {-22, -44}}, negated.getMatrix(), "-(A + B)^T");
+        Assertions.assertFalse(negated.isResident());
+    }
+
+    @Test
+    public void testSparseOperandsMatchDense() throws InterruptedException {
+        double[][] a = sparseMatrix(60, 40, 1);
+        double[][] b = sparseMatrix(40, 60, 2);
+        double[][] c = sparseMatrix(60, 60, 3);
+
+        // -(A * B) + C^T, once fully sparse, once with a dense B and once fully dense
+        double[][] sparse = evaluate(new ComputationNode(SparseMatrix.fromDense(a)),
+                new ComputationNode(SparseMatrix.fromDense(b)), new ComputationNode(SparseMatrix.fromDense(c)));
+        double[][] mixed = evaluate(new ComputationNode(SparseMatrix.fromDense(a)),
+                new ComputationNode(b), new ComputationNode(SparseMatrix.fromDense(c)));
+        double[][] dense = evaluate(new ComputationNode(a), new ComputationNode(b), new ComputationNode(c));
+
+        assertMatricesEqual(dense, sparse, "sparse operands");
+        assertMatricesEqual(dense, mixed, "mixed operands");
+    }
+
+    @Test
+    public void testFloatModeMatchesDouble() throws InterruptedException {
+        double[][] a = randomMatrix(50, 70, 9);
+        double[][] b = randomMatrix(70, 50, 10);
+        double[][] c = randomMatrix(50, 50, 11);
+
+        double[][] expected = evaluate(new ComputationNode(a), new ComputationNode(b), new ComputationNode(c));
+        double[][] actual = evaluate(new ComputationNode(a), new ComputationNode(b), new ComputationNode(c),
+                ElementType.FLOAT);
+
+        // small integers stay exact in single precision
+        assertMatricesEqual(expected, actual, "float mode");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"identity", "diagonal", "lower", "upper", "banded:2,1"})
+    public void testStructuredMultiplyMatchesGeneral(String name) throws InterruptedException {
+        MatrixStructure structure = MatrixStructure.parse(name);
+        double[][] s = structuredMatrix(45, structure, 18);
+        double[][] m = randomMatrix(45, 45, 19);
+        double[][] sm = multiply(s, m, MultiplyStrategy.ROW_WISE);
+        double[][] ms = multiply(m, s, MultiplyStrategy.ROW_WISE);
+
+        // S * M, M * S and S^T * M with the structure declared
+        ComputationNode left = multiplyNode(s, m);
+        left.getChildren().get(0).setStructure(structure);
+        ComputationNode right = multiplyNode(m, s);
+        right.getChildren().get(1).setStructure(structure);
+        ComputationNode st = new ComputationNode(s);
+        st.setStructure(structure);
+        List<ComputationNode> operands = new ArrayList<>();
+        operands.add(new ComputationNode("T", new ArrayList<>(List.of(st))));
+        operands.add(new ComputationNode(m));
+        ComputationNode transposed = new ComputationNode("*", operands);
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT);
+        assertMatricesEqual(sm, engine.run(left).getMatrix(), name + " * M");
+        assertMatricesEqual(ms, engine.run(right).getMatrix(), "M * " + name);
+        double[][] stm = engine.run(transposed).getMatrix();
+        engine.shutdown();
+
+        double[][] expected = multiply(transpose(s), m, MultiplyStrategy.ROW_WISE);
+        assertMatricesEqual(expected, stm, name + "^T * M");
+    }
+
+    @Test
+    public void testIdentityProductReleasesResidentIdentityAndNarrowsInFloatMode() throws InterruptedException {
+        double[][] identity = structuredMatrix(16, MatrixStructure.IDENTITY, 21);
+        double[][] m = randomMatrix(16, 16, 22);
+        BufferPool pool = new BufferPool();
+
+        for (ElementType type : ElementType.values()) {
+            // I held resident in storage from pool, as a previous node would leave it
+            SharedMatrix resident = new SharedMatrix();
+            resident.loadRowMajor(identity, pool);
+            ComputationNode left = new ComputationNode(identity);
+            left.resolve(resident);
+            left.setStructure(MatrixStructure.IDENTITY);
+            ComputationNode node = new ComputationNode("*",
+                    new ArrayList<>(List.of(left, new ComputationNode(m))));
+
+            LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT, type);
+            engine.loadAndCompute(node);
+            engine.shutdown();
+
+            Assertions.assertEquals(type == ElementType.FLOAT, node.isSinglePrecision(), "I * M in " + type);
+            assertMatricesEqual(m, node.getMatrix(), "I * M in " + type);
+            Assertions.assertEquals(16 * 16, pool.getRetained(), "The identity's storage should be back in the pool");
+        }
+    }
+
+    @Test
+    public void testGramProductsAreComputedPacked() throws InterruptedException {
+        double[][] a = randomMatrix(37, 21, 20);
+        double[][] at = transpose(a);
+
+        // A * A^T from two equal literals, A^T * A from one literal read both ways
+        List<ComputationNode> outer = new ArrayList<>();
+        outer.add(new ComputationNode(a));
+        outer.add(new ComputationNode("T", new ArrayList<>(List.of(new ComputationNode(a)))));
+        ComputationNode aat = new ComputationNode("*", outer);
+        ComputationNode shared = new ComputationNode(a);
+        ComputationNode left = new ComputationNode("T", new ArrayList<>(List.of(shared)));
+        ComputationNode ata = new ComputationNode("*", new ArrayList<>(List.of(left, new ComputationNode(a))));
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT);
+        engine.run(aat);
+        engine.run(ata);
+        Assertions.assertTrue(aat.isSymmetric());
+        Assertions.assertTrue(ata.isSymmetric());
+
+        // consumers of a packed result: its transpose, its negation and a general product
+        ComputationNode negated = new ComputationNode("-", new ArrayList<>(List.of(
+                new ComputationNode("T", new ArrayList<>(List.of(aat))))));
+        engine.run(negated);
+        Assertions.assertTrue(negated.isSymmetric());
+        ComputationNode product = new ComputationNode("*", new ArrayList<>(List.of(negated, new ComputationNode(a))));
+        double[][] actual = engine.run(product).getMatrix();
+        engine.shutdown();
+
+        double[][] expectedOuter = multiply(a, at, MultiplyStrategy.ROW_WISE);
+        assertMatricesEqual(multiply(at, a, MultiplyStrategy.ROW_WISE), ata.getMatrix(), "A^T * A");
+        double[][] expected = multiply(expectedOuter, a, MultiplyStrategy.ROW_WISE);
+        for (double[] row : expected) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = -row[j];
+            }
+        }
+        assertMatricesEqual(expected, actual, "-(A * A^T)^T * A");
+    }
+
+    @Test
+    public void testElementwiseTilesOnWideAndTallMatrices() throws InterruptedException {
+        for (int[] shape : new int[][]{{2, 30_000}, {30_000, 2}}) {
+            double[][] a = randomMatrix(shape[0], shape[1], 21);
+            double[][] b = randomMatrix(shape[0], shape[1], 22);
+            List<ComputationNode> operands = new ArrayList<>();
+            operands.add(new ComputationNode(a));
+            operands.add(new ComputationNode(b));
+            ComputationNode root = new ComputationNode("-", new ArrayList<>(List.of(new ComputationNode("+", operands))));
+
+            LinearAlgebraEngine engine = new LinearAlgebraEngine(4);
+            double[][] actual = engine.run(root).getMatrix();
+            engine.shutdown();
+
+            for (int i = 0; i < shape[0]; i++) {
+                for (int j = 0; j < shape[1]; j++) {
+                    Assertions.assertEquals(-(a[i][j] + b[i][j]), actual[i][j], 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSpeculativeModeMatchesRegular() throws InterruptedException {
+        double[][] a = randomMatrix(40, 50, 31);
+        double[][] b = randomMatrix(40, 50, 32);
+        double[][] c = randomMatrix(50, 30, 33);
+        double[][] expected = runSpeculative(false, a, b, c);
+        double[][] actual = runSpeculative(true, a, b, c);
+        assertMatricesEqual(expected, actual, "-(A + B) * C");
+    }
+
+    // -(a + b) * c, row-wise so that every node goes through the element-wise and row-wise tasks
+    private double[][] runSpeculative(boolean speculate, double[][] a, double[][] b, double[][] c)
+            throws InterruptedException {
+        List<ComputationNode> sum = new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(b)));
+        ComputationNode negated = new ComputationNode("-", new ArrayList<>(List.of(new ComputationNode("+", sum))));
+        ComputationNode root = new ComputationNode("*", new ArrayList<>(List.of(negated, new ComputationNode(c))));
+        System.setProperty("lae.speculate", Boolean.toString(speculate));
+        LinearAlgebraEngine engine;
+        try {
+            engine = new LinearAlgebraEngine(THREAD_COUNT, MultiplyStrategy.ROW_WISE);
+        } finally {
+            System.clearProperty("lae.speculate");
+        }
+        try {
+            return engine.run(root).getMatrix();
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testRunStopsAtDeadline() throws InterruptedException {
+        // a long chain of products that cannot finish within the deadline
+        ComputationNode root = new ComputationNode(randomMatrix(200, 200, 41));
+        for (int i = 0; i < 1000; i++) {
+            List<ComputationNode> operands = new ArrayList<>(List.of(root, new ComputationNode(randomMatrix(200, 200, i))));
+            root = new ComputationNode("*", operands);
+        }
+        ComputationNode chain = root;
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT, MultiplyStrategy.ROW_WISE);
+        try {
+            long start = System.nanoTime();
+            Assertions.assertThrows(CancellationException.class,
+                    () -> engine.run(chain, 100, TimeUnit.MILLISECONDS));
+            Assertions.assertTrue(System.nanoTime() - start < 5_000_000_000L);
+
+            // the engine is still usable afterwards
+            double[][] a = randomMatrix(3, 3, 42);
+            double[][] b = randomMatrix(3, 3, 43);
+            double[][] expected = multiply(a, b, MultiplyStrategy.ROW_WISE);
+            assertMatricesEqual(expected, engine.run(multiplyNode(a, b)).getMatrix(), "A * B after a timeout");
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentRunsKeepTheirOwnTokens() throws InterruptedException {
+        // a chain that cannot finish within its deadline, with untimed runs on the same engine next to it
+        ComputationNode root = new ComputationNode(randomMatrix(200, 200, 44));
+        for (int i = 0; i < 1000; i++) {
+            List<ComputationNode> operands = new ArrayList<>(List.of(root, new ComputationNode(randomMatrix(200, 200, i))));
+            root = new ComputationNode("*", operands);
+        }
+        ComputationNode chain = root;
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT, MultiplyStrategy.ROW_WISE);
+        try {
+            AtomicReference<Throwable> outcome = new AtomicReference<>();
+            Thread timed = new Thread(() -> {
+                try {
+                    engine.run(chain, 100, TimeUnit.MILLISECONDS);
+                } catch (Throwable t) {
+                    outcome.set(t);
+                }
+            });
+            long start = System.nanoTime();
+            timed.start();
+
+            double[][] a = randomMatrix(3, 3, 45);
+            double[][] b = randomMatrix(3, 3, 46);
+            double[][] expected = multiply(a, b, MultiplyStrategy.ROW_WISE);
+            do {
+                assertMatricesEqual(expected, engine.run(multiplyNode(a, b)).getMatrix(), "A * B next to a timed run");
+            } while (timed.isAlive() && System.nanoTime() - start < 5_000_000_000L);
+
+            timed.join(5_000);
+            Assertions.assertFalse(timed.isAlive(), "The timed run should stop at its own deadline");
+            Assertions.assertInstanceOf(CancellationException.class, outcome.get());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testIndependentSubtreesRunInParallel() throws InterruptedException {
+        // (A1 + B1) * (A2 + B2) * (A3 + B3): the three sums do not depend on each other
+        List<ComputationNode> sums = new ArrayList<>();
+        double[][] expected = null;
+        for (int s = 0; s < 3; s++) {
+            double[][] a = randomMatrix(40, 40, 50 + s);
+            double[][] b = randomMatrix(40, 40, 60 + s);
+            double[][] sum = new double[40][40];
+            for (int i = 0; i < 40; i++) {
+                for (int j = 0; j < 40; j++) {
+                    sum[i][j] = a[i][j] + b[i][j];
+                }
+            }
+            expected = expected == null ? sum : multiply(expected, sum, MultiplyStrategy.ROW_WISE);
+            sums.add(new ComputationNode("+", new ArrayList<>(List.of(new ComputationNode(a), new ComputationNode(b)))));
+        }
+        ComputationNode root = new ComputationNode("*", sums);
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT);
+        try {
+            assertMatricesEqual(expected, engine.run(root).getMatrix(), "product of independent sums");
+            Assertions.assertEquals(THREAD_COUNT, engine.getPeakNodeConcurrency());
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailingSubtreeStopsTheOthers() throws InterruptedException {
+        // a long chain next to a product with mismatched dimensions
+        ComputationNode chain = new ComputationNode(randomMatrix(100, 100, 70));
+        for (int i = 0; i < 200; i++) {
+            List<ComputationNode> operands = new ArrayList<>(List.of(chain, new ComputationNode(randomMatrix(100, 100, i))));
+            chain = new ComputationNode("*", operands);
+        }
+        ComputationNode mismatch = multiplyNode(randomMatrix(2, 3, 71), randomMatrix(2, 3, 72));
+        ComputationNode root = new ComputationNode("+", new ArrayList<>(List.of(chain, mismatch)));
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT, MultiplyStrategy.ROW_WISE);
+        try {
+            long start = System.nanoTime();
+            Assertions.assertThrows(IllegalArgumentException.class, () -> engine.run(root));
+            Assertions.assertTrue(System.nanoTime() - start < 5_000_000_000L);
+
+            // the engine is still usable afterwards
+            double[][] a = randomMatrix(3, 3, 73);
+            double[][] b = randomMatrix(3, 3, 74);
+            double[][] expected = multiply(a, b, MultiplyStrategy.ROW_WISE);
+            assertMatricesEqual(expected, engine.run(multiplyNode(a, b)).getMatrix(), "A * B after a failure");
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testStructurePropagation() throws InterruptedException {
+        ComputationNode lower = new ComputationNode(new double[][]{{1, 0}, {2, 3}});
+        lower.setStructure(MatrixStructure.LOWER_TRIANGULAR);
+        ComputationNode transposed = new ComputationNode("T", new ArrayList<>(List.of(lower)));
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT);
+        engine.loadAndCompute(transposed);
+        engine.shutdown();
+
+        Assertions.assertEquals(MatrixStructure.UPPER_TRIANGULAR, transposed.getStructure());
+    }
+
+    @Test
+    public void testDeclaredStructureIsParsedAndChecked(@TempDir Path dir) throws IOException, ParseException {
+        Path valid = dir.resolve("valid.json");
+        Files.writeString(valid, "{\"operator\": \"*\", \"operands\": ["
+                + "{\"matrix\": [[1, 0], [2, 3]], \"structure\": \"lower\"}, [[1, 0], [0, 1]]]}");
+        ComputationNode root = new InputParser().parse(valid.toString());
+        Assertions.assertEquals(MatrixStructure.LOWER_TRIANGULAR, root.getChildren().get(0).getStructure());
+        Assertions.assertEquals(MatrixStructure.IDENTITY, root.getChildren().get(1).getStructure());
+
+        Path invalid = dir.resolve("invalid.json");
+        Files.writeString(invalid, "{\"matrix\": [[1, 2], [2, 3]], \"structure\": \"lower\"}");
+        Assertions.assertThrows(ParseException.class, () -> new InputParser().parse(invalid.toString()));
+    }
+
+    private double[][] evaluate(ComputationNode a, ComputationNode b, ComputationNode c) throws InterruptedException {
+        return evaluate(a, b, c, ElementType.DOUBLE);
+    }
+
+    private double[][] evaluate(ComputationNode a, ComputationNode b, ComputationNode c, ElementType elementType)
+            throws InterruptedException {
+        List<ComputationNode> product = new ArrayList<>(List.of(a, b));
+        List<ComputationNode> negated = new ArrayList<>(List.of(new ComputationNode("*", product)));
+        List<ComputationNode> sum = new ArrayList<>();
+        sum.add(new ComputationNode("-", negated));
+        sum.add(new ComputationNode("T", new ArrayList<>(List.of(c))));
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(THREAD_COUNT, elementType);
+        try {
+            return engine.run(new ComputationNode("+", sum)).getMatrix();
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    // about 5% non-zeros
+    static double[][] sparseMatrix(int rows, int cols, long seed) {
+        Random random = new Random(seed);
+        double[][] m = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                if (random.nextInt(20) == 0) {
+                    m[i][j] = random.nextInt(21) - 10;
+                }
+            }
+        }
+        return m;
+    }
+
+    // random integers inside the band of structure, ones on the diagonal for the identity
+    static double[][] structuredMatrix(int n, MatrixStructure structure, long seed) {
+        double[][] m = randomMatrix(n, n, seed);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (structure.isIdentity()) {
+                    m[i][j] = i == j ? 1 : 0;
+                } else if (i - j > structure.lowerBandwidth() || j - i > structure.upperBandwidth()) {
+                    m[i][j] = 0;
+                }
+            }
+        }
+        return m;
+    }
+
+    static double[][] transpose(double[][] m) {
+        double[][] t = new double[m[0].length][m.length];
+        for (int i = 0; i < m.length; i++) {
+            for (int j = 0; j < m[i].length; j++) {
+                t[j][i] = m[i][j];
+            }
+        }
+        return t;
+    }
+
+    static ComputationNode multiplyNode(double[][] a, double[][] b) {
+        List<ComputationNode> operands = new ArrayList<>();
+        operands.add(new ComputationNode(a));
+        operands.add(new ComputationNode(b));
+        return new ComputationNode("*", operands);
+    }
+
+    static double[][] multiply(double[][] a, double[][] b, MultiplyStrategy strategy) throws InterruptedException {
+        ComputationNode root = multiplyNode(a, b);
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(3, strategy);
+        try {
+            return engine.run(root).getMatrix();
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    static double[][] randomMatrix(int rows, int cols, long seed) {
+        Random random = new Random(seed);
+        double[][] m = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                m[i][j] = random.nextInt(21) - 10;
+            }
+        }
+        return m;
+    }
+}
@@ -0,0 +1,49 @@
+package spl.lae;
+
+import parser.ComputationNode;
+
+/**
+ * Compares the MULTIPLY strategies of the engine on random square matrices.
+ * Not a unit test, run it manually, e.g.:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=spl.lae.MultiplyBenchmark -Dexec.args="1024 8"
+ * Arguments: matrix size (default 1024), number of threads (default: available processors).
+ */
+public class MultiplyBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURED_ROUNDS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        double[][] a = LinearAlgebraEngineTest.randomMatrix(n, n, 1);
+        double[][] b = LinearAlgebraEngineTest.randomMatrix(n, n, 2);
+
+        System.out.println("n=" + n + " threads=" + threads);
+        for (MultiplyStrategy strategy : MultiplyStrategy.values()) {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                run(a, b, strategy, threads);
+            }
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                best = Math.min(best, run(a, b, strategy, threads));
+            }
+            System.out.printf("%-10s best of %d: %.1f ms%n", strategy, MEASURED_ROUNDS, best / 1_000_000.0);
+        }
+    }
+
+    private static long run(double[][] a, double[][] b, MultiplyStrategy strategy, int threads)
+            throws InterruptedException {
+        ComputationNode root = LinearAlgebraEngineTest.multiplyNode(a, b);
+
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(threads, strategy);
+        try {
+            long t0 = System.nanoTime();
+            engine.run(root);
+            return System.nanoTime() - t0;
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package spl.lae;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TaskGranularityTest {
+
+    @Test
+    public void testSmallOperationsRunAsOneTask() {
+        Assertions.assertEquals(1, TaskGranularity.taskCount(100, 8));
+        Assertions.assertArrayEquals(new int[]{1, 1}, TaskGranularity.tiles(10, 10, 1, 8));
+        Assertions.assertEquals(1, TaskGranularity.rangeCount(0, 1, 8));
+    }
+
+    @Test
+    public void testTallMatricesGetRowBatches() {
+        // 100000 x 4: a few row batches instead of one task per row
+        int[] blocks = TaskGranularity.tiles(100_000, 4, 1, 8);
+        Assertions.assertEquals(8 * TaskGranularity.TASKS_PER_WORKER, blocks[0]);
+        Assertions.assertEquals(1, blocks[1]);
+    }
+
+    @Test
+    public void testWideMatricesGetTiles() {
+        // 2 x 100000: two rows, still enough tiles for every worker
+        int[] blocks = TaskGranularity.tiles(2, 100_000, 1, 8);
+        Assertions.assertEquals(2, blocks[0]);
+        Assertions.assertEquals(TaskGranularity.taskCount(200_000, 8) / 2, blocks[1]);
+        Assertions.assertTrue(blocks[0] * blocks[1] >= 8);
+    }
+
+    @Test
+    public void testRangesNeverSplitUnits() {
+        // three very expensive units stay three tasks
+        Assertions.assertEquals(3, TaskGranularity.rangeCount(3, 1L << 40, 8));
+        Assertions.assertEquals(TaskGranularity.TASKS_PER_WORKER * 2, TaskGranularity.rangeCount(1000, 1L << 20, 2));
+        Assertions.assertEquals(3, TaskGranularity.perUnit(7, 3));
+    }
+
+    @Test
+    void testMinChunkCarriesMinimumTaskCost() {
+        Assertions.assertEquals((int) TaskGranularity.MIN_TASK_COST, TaskGranularity.minChunk(1));
+        Assertions.assertEquals(1, TaskGranularity.minChunk(TaskGranularity.MIN_TASK_COST));
+        Assertions.assertEquals(1, TaskGranularity.minChunk(Long.MAX_VALUE));
+        Assertions.assertEquals(4, TaskGranularity.minChunk(TaskGranularity.MIN_TASK_COST / 4));
+    }
+}